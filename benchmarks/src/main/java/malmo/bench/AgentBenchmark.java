@@ -0,0 +1,92 @@
+package malmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Canvas;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the TabularQAgent hot paths against the cliff walking simulator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AgentBenchmark {
+
+    private static final String[] ACTIONS = {"movenorth 1", "movesouth 1", "movewest 1", "moveeast 1"};
+
+    private Object agent;
+    private Object environment;
+
+    /**
+     * The positions act() is called with, all on the sandstone path
+     */
+    private int[] xs, zs;
+    private int position;
+
+    private double[] row;
+
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() throws Throwable {
+        agent = (Object) Examples.NEW_AGENT.invokeExact(ACTIONS, 0.01, 0.1, 1.0, false, (Canvas) null);
+        environment = (Object) Examples.NEW_SIMULATOR.invokeExact(0L);
+
+        // Fill the Q-table so we measure a trained agent
+        for(int i=0; i<1000; i++)
+            Examples.RUN.invoke(agent, environment);
+        Examples.BEGIN.invoke(environment);
+
+        xs = new int[3 * 12];
+        zs = new int[3 * 12];
+        for(int i=0; i<xs.length; i++) {
+            xs[i] = 1 + i % 3;
+            zs[i] = 1 + i / 3;
+        }
+        row = new double[]{-3.5, 12.25, 12.25, -100};
+
+        image = new BufferedImage(6 * 40, 14 * 40, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public double act() throws Throwable {
+        int i = position++ % xs.length;
+        return (double) Examples.ACT.invokeExact(agent, xs[i], zs[i], environment, -1.0);
+    }
+
+    @Benchmark
+    public double getHighest() throws Throwable {
+        return (double) Examples.GET_HIGHEST.invokeExact(row);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BufferedImage drawQ() throws Throwable {
+        int i = position++ % xs.length;
+        Examples.DRAW_Q.invokeExact(agent, (java.awt.Graphics) graphics, xs[i], zs[i]);
+        return image;
+    }
+}
@@ -0,0 +1,75 @@
+package malmo.bench;
+
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Handles to the example classes.
+ *
+ * The examples live in the default package, which Java code in a named package can't refer to, and JMH won't
+ * generate benchmarks for classes in the default package. So the benchmarks call them through method handles.
+ * The handles are static final and typed with Object in place of the example classes, so invokeExact() gets
+ * inlined by the JIT like a direct call.
+ */
+final class Examples {
+
+    static final MethodHandle NEW_AGENT;
+    static final MethodHandle RUN;
+    static final MethodHandle ACT;
+    static final MethodHandle DRAW_Q;
+    static final MethodHandle GET_HIGHEST;
+    static final MethodHandle NEW_SIMULATOR;
+    static final MethodHandle BEGIN;
+    static final MethodHandle MENGER;
+    static final MethodHandle MENGER_WITH_VARIANT;
+    static final MethodHandle MENGER_COALESCED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> agent = Class.forName("TabularQLearning$TabularQAgent");
+            Class<?> environment = Class.forName("Environment");
+            Class<?> simulator = Class.forName("CliffWalkSimulator");
+            Class<?> menger = Class.forName("MengerSponge");
+
+            NEW_AGENT = erase(lookup.findConstructor(agent,
+                    methodType(void.class, String[].class, double.class, double.class, double.class, boolean.class, Canvas.class)));
+            RUN = erase(lookup.findVirtual(agent, "run", methodType(double.class, environment)));
+            ACT = erase(lookup.findVirtual(agent, "act", methodType(double.class, int.class, int.class, environment, double.class)));
+            DRAW_Q = erase(lookup.findVirtual(agent, "drawQ", methodType(void.class, Graphics.class, int.class, int.class)));
+            GET_HIGHEST = lookup.findStatic(agent, "getHighest", methodType(double.class, double[].class));
+            NEW_SIMULATOR = erase(lookup.findConstructor(simulator, methodType(void.class, long.class)));
+            BEGIN = erase(lookup.findVirtual(environment, "begin", methodType(boolean.class)));
+            MENGER = lookup.findStatic(menger, "menger",
+                    methodType(String.class, int.class, int.class, int.class, int.class, String.class, String.class));
+            MENGER_WITH_VARIANT = lookup.findStatic(menger, "menger",
+                    methodType(String.class, int.class, int.class, int.class, int.class, String.class, String.class, String.class));
+            MENGER_COALESCED = lookup.findStatic(menger, "coalesced",
+                    methodType(String.class, int.class, int.class, int.class, int.class, String.class, String.class, String.class));
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Examples() {
+    }
+
+    /**
+     * Replaces every parameter and return type that is one of the example classes by Object
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for(int i=0; i<type.parameterCount(); i++) {
+            if(type.parameterType(i).getPackageName().isEmpty())
+                type = type.changeParameterType(i, Object.class);
+        }
+        if(type.returnType().getPackageName().isEmpty())
+            type = type.changeReturnType(Object.class);
+        return handle.asType(type);
+    }
+}
@@ -0,0 +1,44 @@
+package malmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating the Menger sponge decorators of Tutorial3 and Tutorial4(Solved), as is and coalesced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MengerBenchmark {
+
+    @Param({"27", "81", "243", "729"})
+    public int size;
+
+    @Benchmark
+    public String tutorial3() throws Throwable {
+        return (String) Examples.MENGER.invokeExact(-40, 40, -13, size, "wool", "air");
+    }
+
+    @Benchmark
+    public String tutorial4Solved() throws Throwable {
+        return (String) Examples.MENGER_WITH_VARIANT.invokeExact(-40, 40, -13, size, "stone", "smooth_granite", "air");
+    }
+
+    @Benchmark
+    public String tutorial4SolvedCoalesced() throws Throwable {
+        return (String) Examples.MENGER_COALESCED.invokeExact(-40, 40, -13, size, "stone", "smooth_granite", "air");
+    }
+}
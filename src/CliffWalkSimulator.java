@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * A pure Java version of the cliff_walking_1 mission, so agents can train without a Minecraft client.
+ *
+ * The world matches the mission XML and what TabularQLearning.main adds to it:
+ * <pre>
+ *   x = 0..5, z = 0..13      lava everywhere, except for
+ *   x = 1..3, z = 1..12      a sandstone path
+ *   (4, 1)                   the start, on cobblestone
+ *   (4, 12)                  the goal, on lapis
+ *   (1..3, 2/4/6/8/10)       one random lava block per row, drawn like mission.drawBlock(x, 45, z, "lava")
+ * </pre>
+ * Every command costs 1 (RewardForSendingCommand), touching lava gives -100 and touching the goal gives 100.
+ * Both end the episode (AgentQuitFromTouchingBlockType). Discrete movement commands move one block, north being -z.
+ */
+public class CliffWalkSimulator implements Environment {
+
+    /**
+     * The width (X) of the world
+     */
+    public static final int WIDTH = 6;
+
+    /**
+     * The depth (Z) of the world
+     */
+    public static final int DEPTH = 14;
+
+    /**
+     * The start position
+     */
+    public static final int START_X = 4, START_Z = 1;
+
+    /**
+     * The goal position
+     */
+    public static final int GOAL_X = 4, GOAL_Z = 12;
+
+    /**
+     * Cell types
+     */
+    private static final byte LAVA = 0, PATH = 1, GOAL = 2;
+
+    /**
+     * Rewards, from the mission XML
+     */
+    public static final double COMMAND_REWARD = -1, LAVA_REWARD = -100, GOAL_REWARD = 100;
+
+    /**
+     * The cells of the world, indexed by z * WIDTH + x
+     */
+    private final byte[] cells = new byte[WIDTH * DEPTH];
+
+    /**
+     * Where the random lava goes
+     */
+    private final SplittableRandom random;
+
+    /**
+     * The most commands per episode before it times out, like ServerQuitFromTimeUp
+     */
+    private int maxSteps = 1000;
+
+    /**
+     * The position of the agent
+     */
+    private int x, z;
+
+    /**
+     * The amount of commands sent this episode
+     */
+    private int steps;
+
+    /**
+     * Whether the episode is still running
+     */
+    private boolean running;
+
+    /**
+     * The reward of the last command, applied on the next step()
+     */
+    private double pendingReward;
+
+    /**
+     * The rewards of the last step
+     */
+    private double reward;
+
+    /**
+     * Creates a new simulator with a random map
+     * @param seed The seed for the lava positions
+     */
+    public CliffWalkSimulator(long seed) {
+        this.random = new SplittableRandom(seed);
+        newMap();
+    }
+
+    /**
+     * Generates a new map: resets the path and draws new random lava blocks
+     */
+    public void newMap() {
+        for(int cz=0; cz<DEPTH; cz++)
+            for(int cx=0; cx<WIDTH; cx++)
+                cells[cz * WIDTH + cx] = (cx >= 1 && cx <= 3 && cz >= 1 && cz <= 12) ? PATH : LAVA;
+        cells[START_Z * WIDTH + START_X] = PATH;
+        cells[GOAL_Z * WIDTH + GOAL_X] = GOAL;
+
+        // Draw holes to make it interesting
+        for(int hz=2; hz<12; hz+=2)
+            cells[hz * WIDTH + random.nextInt(1, 4)] = LAVA;
+    }
+
+    /**
+     * @param maxSteps The most commands per episode before it times out
+     */
+    public void setMaxSteps(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @param x The X position
+     * @param z The Z position
+     * @return True if the position is lava (or outside the world, which is just as deadly)
+     */
+    public boolean isLava(int x, int z) {
+        return x < 0 || z < 0 || x >= WIDTH || z >= DEPTH || cells[z * WIDTH + x] == LAVA;
+    }
+
+    @Override
+    public boolean begin() {
+        x = START_X;
+        z = START_Z;
+        steps = 0;
+        reward = 0;
+        pendingReward = 0;
+        running = true;
+        return true;
+    }
+
+    @Override
+    public void sendCommand(String command) {
+        if(!running)
+            return;
+        switch(command) {
+            case "movenorth 1": z--; break;
+            case "movesouth 1": z++; break;
+            case "movewest 1": x--; break;
+            case "moveeast 1": x++; break;
+            default: break; // Unknown commands still cost a reward
+        }
+        steps++;
+        pendingReward += COMMAND_REWARD;
+
+        if(isLava(x, z)) {
+            pendingReward += LAVA_REWARD;
+            running = false;
+        } else if(cells[z * WIDTH + x] == GOAL) {
+            pendingReward += GOAL_REWARD;
+            running = false;
+        } else if(steps >= maxSteps) {
+            running = false;
+        }
+    }
+
+    @Override
+    public boolean step() {
+        reward = pendingReward;
+        pendingReward = 0;
+        return running;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getZ() {
+        return z;
+    }
+
+    @Override
+    public double getReward() {
+        return reward;
+    }
+
+    /**
+     * Pre-trains an agent on the simulator
+     * Usage: CliffWalkSimulator [episodes] [model_file]
+     */
+    public static void main(String[] argv) {
+        int episodes = argv.length > 0 ? Integer.parseInt(argv[0]) : 10000;
+        String[] actionSet = new String[]{"movenorth 1", "movesouth 1", "movewest 1", "moveeast 1"};    // Possible actions
+
+        CliffWalkSimulator simulator = new CliffWalkSimulator(0);
+        TabularQLearning.TabularQAgent agent = new TabularQLearning.TabularQAgent(actionSet, 0.01, 0.1, 1.0, false, null);
+
+        // The first half includes JIT warm-up, so the second half is timed on its own as well
+        long start = System.nanoTime(), halfStart = start;
+        long steps = 0, halfSteps = 0;
+        double recentReward = 0;
+        for(int episode=0; episode<episodes; episode++) {
+            if(episode == episodes / 2) {
+                halfStart = System.nanoTime();
+                halfSteps = steps;
+            }
+            double reward = agent.run(simulator);
+            steps += simulator.steps;
+            if(episode >= episodes - 100)
+                recentReward += reward;
+        }
+        long end = System.nanoTime();
+        double seconds = (end - start) / 1e9, halfSeconds = (end - halfStart) / 1e9;
+        System.out.format("%d episodes, %d steps in %.2fs (%.0f steps/s, %.0f steps/s in the second half), mean reward of the last 100 episodes: %.2f\n",
+                episodes, steps, seconds, steps / seconds, (steps - halfSteps) / halfSeconds, recentReward / Math.min(100, episodes));
+
+        if(argv.length > 1) {
+            try {
+                QTableFile.write(agent.getQTable(), Paths.get(argv[1]));
+            } catch(IOException e) {
+                System.err.println("Couldn't save model: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Something DrawingDecorator elements (DrawCuboid, DrawSphere, DrawBlock) can be drawn into.
+ *
+ * DecoratorWriter writes them out as XML, DecoratorOptimizer collects them to merge them first.
+ */
+public interface Decorator {
+
+    /**
+     * Draws a solid cuboid
+     * @param x1 X start pos
+     * @param y1 Y start pos
+     * @param z1 Z start pos
+     * @param x2 X end pos
+     * @param y2 Y end pos
+     * @param z2 Z end pos
+     * @param blocktype The block type to be used.
+     */
+    default void drawCuboid(int x1, int y1, int z1, int x2, int y2, int z2, String blocktype) {
+        drawCuboid(x1, y1, z1, x2, y2, z2, blocktype, null);
+    }
+
+    /**
+     * Draws a solid cuboid with a variant of the block type
+     * @param x1 X start pos
+     * @param y1 Y start pos
+     * @param z1 Z start pos
+     * @param x2 X end pos
+     * @param y2 Y end pos
+     * @param z2 Z end pos
+     * @param blocktype The block type to be used.
+     * @param variant The variant of the blocktype, or null for none
+     */
+    void drawCuboid(int x1, int y1, int z1, int x2, int y2, int z2, String blocktype, String variant);
+
+    /**
+     * Draws a sphere
+     * @param x X centre
+     * @param y Y centre
+     * @param z Z centre
+     * @param radius The radius
+     * @param blocktype The block type to be used.
+     */
+    void drawSphere(int x, int y, int z, int radius, String blocktype);
+
+    /**
+     * Draws a single block
+     * @param x X pos
+     * @param y Y pos
+     * @param z Z pos
+     * @param blocktype The block type to be used.
+     */
+    void drawBlock(int x, int y, int z, String blocktype);
+}
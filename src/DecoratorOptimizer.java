@@ -0,0 +1,295 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Rewrites decorator commands into fewer DrawCuboid elements that build the same world.
+ *
+ * Commands are collected first and then rasterized, in order, into a voxel grid over their bounding box, so every
+ * voxel ends up with the block type of the last command that touched it. Voxels no command touched are left
+ * alone. write() then draws the block types as layers, in the order they were first used: every layer is a set
+ * of boxes that covers all voxels of its type, and may also cover voxels of the layers drawn after it, since
+ * those overwrite it anyway. Each box is grown as far as it can along X, then Y, then Z. Generators that draw the
+ * same holes again and again (like MengerSponge, which carves tunnels inside tunnels) shrink a lot this way.
+ *
+ * Grids are limited to MAX_VOXELS voxels. write() falls back to the original commands for anything bigger, and
+ * whenever the boxes would outnumber them.
+ */
+public class DecoratorOptimizer implements Decorator {
+
+    /**
+     * The biggest bounding box we'll rasterize
+     */
+    public static final long MAX_VOXELS = 1L << 27;
+
+    /**
+     * Command kinds
+     */
+    private static final int CUBOID = 0, SPHERE = 1;
+
+    /**
+     * The block types (and variants) used so far. Index + 1 is the value in the voxel grid, 0 means untouched.
+     */
+    private final List<String> types = new ArrayList<>();
+    private final List<String> variants = new ArrayList<>();
+
+    /**
+     * The commands, 8 ints each: kind, type, x1, y1, z1, x2, y2, z2 (spheres: kind, type, x, y, z, radius, -, -)
+     */
+    private int[] commands = new int[8 * 64];
+
+    /**
+     * The amount of commands
+     */
+    private int count;
+
+    /**
+     * The bounding box of all commands, inclusive
+     */
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    /**
+     * Adds a solid cuboid with a variant of the block type
+     * @param x1 X start pos
+     * @param y1 Y start pos
+     * @param z1 Z start pos
+     * @param x2 X end pos
+     * @param y2 Y end pos
+     * @param z2 Z end pos
+     * @param blocktype The block type to be used.
+     * @param variant The variant of the blocktype, or null for none
+     */
+    @Override
+    public void drawCuboid(int x1, int y1, int z1, int x2, int y2, int z2, String blocktype, String variant) {
+        add(CUBOID, type(blocktype, variant),
+                Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2),
+                Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2));
+        grow(Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2));
+    }
+
+    /**
+     * Adds a single block
+     * @param x X pos
+     * @param y Y pos
+     * @param z Z pos
+     * @param blocktype The block type to be used.
+     */
+    @Override
+    public void drawBlock(int x, int y, int z, String blocktype) {
+        drawCuboid(x, y, z, x, y, z, blocktype, null);
+    }
+
+    /**
+     * Adds a sphere, with the same rasterization as Malmo: every block whose centre is within the radius
+     * @param x X centre
+     * @param y Y centre
+     * @param z Z centre
+     * @param radius The radius
+     * @param blocktype The block type to be used.
+     */
+    @Override
+    public void drawSphere(int x, int y, int z, int radius, String blocktype) {
+        add(SPHERE, type(blocktype, null), x, y, z, radius, 0, 0);
+        grow(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius);
+    }
+
+    /**
+     * @return The amount of commands added so far
+     */
+    public int getCommandCount() {
+        return count;
+    }
+
+    /**
+     * Writes the merged boxes, or the original commands if merging doesn't pay off
+     * @param out Where to write the elements
+     * @return The amount of elements written
+     */
+    public int write(DecoratorWriter out) {
+        int[] boxes = count == 0 ? null : coalesce(count);
+        if(boxes == null) {
+            writeCommands(out);
+            return count;
+        }
+
+        int boxCount = boxes.length / 7;
+        for(int b=0; b<boxCount; b++) {
+            int o = b * 7;
+            int type = boxes[o];
+            out.drawCuboid(boxes[o + 1], boxes[o + 2], boxes[o + 3], boxes[o + 4], boxes[o + 5], boxes[o + 6],
+                    types.get(type), variants.get(type));
+        }
+        return boxCount;
+    }
+
+    /**
+     * Writes the commands as they were added
+     */
+    private void writeCommands(DecoratorWriter out) {
+        for(int c=0; c<count; c++) {
+            int o = c * 8;
+            int type = commands[o + 1];
+            if(commands[o] == SPHERE)
+                out.drawSphere(commands[o + 2], commands[o + 3], commands[o + 4], commands[o + 5], types.get(type));
+            else
+                out.drawCuboid(commands[o + 2], commands[o + 3], commands[o + 4], commands[o + 5], commands[o + 6], commands[o + 7],
+                        types.get(type), variants.get(type));
+        }
+    }
+
+    /**
+     * Rasterizes the commands and merges the voxels into boxes
+     * @param limit Give up once we'd need more boxes than this
+     * @return The boxes, 7 ints each: type, x1, y1, z1, x2, y2, z2, or null if we gave up
+     */
+    private int[] coalesce(int limit) {
+        long sizeX = (long) maxX - minX + 1, sizeY = (long) maxY - minY + 1, sizeZ = (long) maxZ - minZ + 1;
+        if(sizeX * sizeY * sizeZ > MAX_VOXELS || types.size() > 255)
+            return null;
+        int nx = (int) sizeX, ny = (int) sizeY, nz = (int) sizeZ;
+        int strideZ = nx * ny;
+
+        byte[] grid = rasterize(nx, ny, nz);
+        BitSet covered = new BitSet(nx * ny * nz);
+
+        int[] boxes = new int[7 * 64];
+        int boxCount = 0;
+        for(int layer=1; layer<=types.size(); layer++) {
+            covered.clear();
+            for(int i=covered.nextClearBit(0); i<grid.length; i=covered.nextClearBit(i + 1)) {
+                if((grid[i] & 0xFF) != layer)
+                    continue;
+                int x = i % nx, y = (i / nx) % ny, z = i / strideZ;
+
+                // Grow along X
+                int x2 = x;
+                while(x2 + 1 < nx && allowed(grid[i + x2 + 1 - x], layer))
+                    x2++;
+                // Grow along Y while whole rows fit
+                int y2 = y;
+                while(y2 + 1 < ny && fits(grid, layer, z * strideZ + (y2 + 1) * nx, x, x2))
+                    y2++;
+                // Grow along Z while whole slabs fit
+                int z2 = z;
+                grow:
+                while(z2 + 1 < nz) {
+                    for(int yy=y; yy<=y2; yy++)
+                        if(!fits(grid, layer, (z2 + 1) * strideZ + yy * nx, x, x2))
+                            break grow;
+                    z2++;
+                }
+
+                for(int zz=z; zz<=z2; zz++)
+                    for(int yy=y; yy<=y2; yy++)
+                        covered.set(zz * strideZ + yy * nx + x, zz * strideZ + yy * nx + x2 + 1);
+
+                if(++boxCount > limit)
+                    return null;
+                if(boxCount * 7 > boxes.length)
+                    boxes = Arrays.copyOf(boxes, boxes.length * 2);
+                int o = (boxCount - 1) * 7;
+                boxes[o] = layer - 1;
+                boxes[o + 1] = minX + x;
+                boxes[o + 2] = minY + y;
+                boxes[o + 3] = minZ + z;
+                boxes[o + 4] = minX + x2;
+                boxes[o + 5] = minY + y2;
+                boxes[o + 6] = minZ + z2;
+            }
+        }
+        return Arrays.copyOf(boxes, boxCount * 7);
+    }
+
+    /**
+     * @return Whether a box of the layer may cover a voxel: it either ends up with the layer's type, or with one
+     *         that's drawn later and overwrites it
+     */
+    private static boolean allowed(byte voxel, int layer) {
+        return (voxel & 0xFF) >= layer;
+    }
+
+    /**
+     * @return Whether a box of the layer may cover grid[row + x1 .. row + x2]
+     */
+    private static boolean fits(byte[] grid, int layer, int row, int x1, int x2) {
+        for(int x=x1; x<=x2; x++)
+            if(!allowed(grid[row + x], layer))
+                return false;
+        return true;
+    }
+
+    /**
+     * Draws every command into a grid over the bounding box, in order
+     * @return The grid, indexed by (z * ny + y) * nx + x, holding type + 1 or 0 for untouched
+     */
+    private byte[] rasterize(int nx, int ny, int nz) {
+        byte[] grid = new byte[nx * ny * nz];
+        int strideZ = nx * ny;
+        for(int c=0; c<count; c++) {
+            int o = c * 8;
+            byte value = (byte) (commands[o + 1] + 1);
+            if(commands[o] == CUBOID) {
+                for(int z=commands[o + 4]; z<=commands[o + 7]; z++)
+                    for(int y=commands[o + 3]; y<=commands[o + 6]; y++) {
+                        int row = (z - minZ) * strideZ + (y - minY) * nx - minX;
+                        Arrays.fill(grid, row + commands[o + 2], row + commands[o + 5] + 1, value);
+                    }
+            } else {
+                int cx = commands[o + 2], cy = commands[o + 3], cz = commands[o + 4], r = commands[o + 5];
+                long r2 = (long) r * r;
+                for(int z=cz-r; z<=cz+r; z++)
+                    for(int y=cy-r; y<=cy+r; y++)
+                        for(int x=cx-r; x<=cx+r; x++) {
+                            long dx = x - cx, dy = y - cy, dz = z - cz;
+                            if(dx * dx + dy * dy + dz * dz <= r2)
+                                grid[(z - minZ) * strideZ + (y - minY) * nx + (x - minX)] = value;
+                        }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return The index of a block type and variant, adding it if it's new
+     */
+    private int type(String blocktype, String variant) {
+        for(int i=0; i<types.size(); i++)
+            if(types.get(i).equals(blocktype) && (variant == null ? variants.get(i) == null : variant.equals(variants.get(i))))
+                return i;
+        types.add(blocktype);
+        variants.add(variant);
+        return types.size() - 1;
+    }
+
+    /**
+     * Appends a command
+     */
+    private void add(int kind, int type, int a, int b, int c, int d, int e, int f) {
+        if((count + 1) * 8 > commands.length)
+            commands = Arrays.copyOf(commands, commands.length * 2);
+        int o = count * 8;
+        commands[o] = kind;
+        commands[o + 1] = type;
+        commands[o + 2] = a;
+        commands[o + 3] = b;
+        commands[o + 4] = c;
+        commands[o + 5] = d;
+        commands[o + 6] = e;
+        commands[o + 7] = f;
+        count++;
+    }
+
+    /**
+     * Grows the bounding box
+     */
+    private void grow(int x1, int y1, int z1, int x2, int y2, int z2) {
+        minX = Math.min(minX, x1);
+        minY = Math.min(minY, y1);
+        minZ = Math.min(minZ, z1);
+        maxX = Math.max(maxX, x2);
+        maxY = Math.max(maxY, y2);
+        maxZ = Math.max(maxZ, z2);
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes DrawingDecorator elements (DrawCuboid, DrawSphere, DrawBlock) straight to an Appendable.
+ *
+ * Nothing is built up in between: numbers are written digit by digit and every element goes straight to the
+ * output, so generating a decorator is linear in its size. Write into a StringBuilder (e.g. the mission XML
+ * buffer of a MissionTemplate) or a Writer. Every element is followed by a newline.
+ *
+ * IOExceptions of the underlying Appendable are rethrown as UncheckedIOExceptions.
+ */
+public class DecoratorWriter implements Decorator {
+
+    /**
+     * Where the elements go
+     */
+    private final Appendable out;
+
+    /**
+     * The namespace prefix of the elements, e.g. "ns2:", or an empty string
+     */
+    private final String prefix;
+
+    /**
+     * Scratch space to format numbers in
+     */
+    private final char[] digits = new char[11];
+
+    /**
+     * The amount of elements written so far
+     */
+    private int count;
+
+    /**
+     * Creates a writer for elements without a namespace prefix
+     * @param out Where to write the elements
+     */
+    public DecoratorWriter(Appendable out) {
+        this(out, "");
+    }
+
+    /**
+     * Creates a new writer
+     * @param out Where to write the elements
+     * @param prefix The namespace prefix of the elements, e.g. "ns2:", or an empty string
+     */
+    public DecoratorWriter(Appendable out, String prefix) {
+        this.out = out;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Writes a solid cuboid
+     * @param x1 X start pos
+     * @param y1 Y start pos
+     * @param z1 Z start pos
+     * @param x2 X end pos
+     * @param y2 Y end pos
+     * @param z2 Z end pos
+     * @param blocktype The block type to be used.
+     */
+    public void drawCuboid(int x1, int y1, int z1, int x2, int y2, int z2, String blocktype) {
+        drawCuboid(x1, y1, z1, x2, y2, z2, blocktype, null);
+    }
+
+    /**
+     * Writes a solid cuboid with a variant of the block type
+     * @param x1 X start pos
+     * @param y1 Y start pos
+     * @param z1 Z start pos
+     * @param x2 X end pos
+     * @param y2 Y end pos
+     * @param z2 Z end pos
+     * @param blocktype The block type to be used.
+     * @param variant The variant of the blocktype, or null for none
+     */
+    public void drawCuboid(int x1, int y1, int z1, int x2, int y2, int z2, String blocktype, String variant) {
+        try {
+            out.append('<').append(prefix).append("DrawCuboid x1=\"");
+            appendInt(x1);
+            out.append("\" y1=\"");
+            appendInt(y1);
+            out.append("\" z1=\"");
+            appendInt(z1);
+            out.append("\" x2=\"");
+            appendInt(x2);
+            out.append("\" y2=\"");
+            appendInt(y2);
+            out.append("\" z2=\"");
+            appendInt(z2);
+            endElement(blocktype, variant);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a sphere
+     * @param x X centre
+     * @param y Y centre
+     * @param z Z centre
+     * @param radius The radius
+     * @param blocktype The block type to be used.
+     */
+    public void drawSphere(int x, int y, int z, int radius, String blocktype) {
+        try {
+            out.append('<').append(prefix).append("DrawSphere x=\"");
+            appendInt(x);
+            out.append("\" y=\"");
+            appendInt(y);
+            out.append("\" z=\"");
+            appendInt(z);
+            out.append("\" radius=\"");
+            appendInt(radius);
+            endElement(blocktype, null);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a single block
+     * @param x X pos
+     * @param y Y pos
+     * @param z Z pos
+     * @param blocktype The block type to be used.
+     */
+    public void drawBlock(int x, int y, int z, String blocktype) {
+        try {
+            out.append('<').append(prefix).append("DrawBlock x=\"");
+            appendInt(x);
+            out.append("\" y=\"");
+            appendInt(y);
+            out.append("\" z=\"");
+            appendInt(z);
+            endElement(blocktype, null);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The amount of elements written so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the type and variant attributes and closes the element
+     */
+    private void endElement(String blocktype, String variant) throws IOException {
+        out.append("\" type=\"").append(blocktype);
+        if(variant != null)
+            out.append("\" variant=\"").append(variant);
+        out.append("\" />\n");
+        count++;
+    }
+
+    /**
+     * Writes a number without going through a String
+     */
+    private void appendInt(int value) throws IOException {
+        if(out instanceof StringBuilder) {
+            ((StringBuilder) out).append(value);
+            return;
+        }
+
+        int pos = digits.length;
+        long v = value;
+        boolean negative = v < 0;
+        if(negative)
+            v = -v;
+        do {
+            digits[--pos] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while(v != 0);
+        if(negative)
+            digits[--pos] = '-';
+
+        if(out instanceof Writer) {
+            ((Writer) out).write(digits, pos, digits.length - pos);
+        } else {
+            for(int i=pos; i<digits.length; i++)
+                out.append(digits[i]);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the planning updates of a Dyna-Q learner on its own thread, while the learner waits for its next real step.
+ *
+ * After every real step the learner hands the planner a budget of planning updates. The planner works through it
+ * in small batches, so the learner's own update never waits long for the lock they share. A new budget replaces
+ * whatever is left of the previous one: planning only fills the time between real steps and never piles up.
+ */
+public class DynaPlanner implements AutoCloseable {
+
+    /**
+     * How many updates to do per batch
+     */
+    private static final int BATCH = 32;
+
+    /**
+     * Does the planning updates, e.g. TabularQAgent.plan()
+     */
+    private final IntConsumer planner;
+
+    /**
+     * The updates left until the next real step
+     */
+    private final AtomicInteger budget = new AtomicInteger();
+
+    /**
+     * The updates done so far
+     */
+    private final AtomicLong planned = new AtomicLong();
+
+    /**
+     * The planning thread
+     */
+    private final Thread thread;
+
+    /**
+     * Whether the planner has been closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates and starts a new planner
+     * @param planner Does the given amount of planning updates, taking the lock it shares with the learner
+     */
+    public DynaPlanner(IntConsumer planner) {
+        this.planner = planner;
+        this.thread = new Thread(this::run, "dyna-planner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Sets the budget for the time until the next real step. Call this after every real step.
+     * @param updates How many planning updates to do
+     */
+    public void request(int updates) {
+        budget.set(updates);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return How many planning updates were done so far
+     */
+    public long getPlanned() {
+        return planned.get();
+    }
+
+    /**
+     * Stops the planning thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * The planning thread
+     */
+    private void run() {
+        while(!closed) {
+            int left = budget.get();
+            if(left <= 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            int batch = Math.min(left, BATCH);
+            if(!budget.compareAndSet(left, left - batch))
+                continue;
+            try {
+                planner.accept(batch);
+                planned.addAndGet(batch);
+            } catch(RuntimeException e) {
+                System.err.println("Planning failed: " + e.getMessage());
+                budget.set(0);
+            }
+        }
+    }
+}
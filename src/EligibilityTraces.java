@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * Sparse eligibility traces for Q(lambda), over the cells of a QTable's value array.
+ *
+ * Only cells visited since the traces were last cleared have a trace: their indexes and traces are kept in two
+ * parallel primitive arrays, with a third array mapping a cell back to its slot. Decaying doesn't touch the
+ * traces themselves. It shrinks a shared scale factor, and a trace's value is its stored value times the scale.
+ * Only once the scale has shrunk below MIN_TRACE are the stored values scaled in one batch, and the traces that
+ * have decayed below MIN_TRACE are dropped on the way, so the list stays as short as the recent trajectory.
+ */
+public class EligibilityTraces {
+
+    /**
+     * Traces smaller than this are dropped
+     */
+    private static final double MIN_TRACE = 1e-4;
+
+    /**
+     * Marks a cell without a trace in slotOf
+     */
+    private static final int NO_SLOT = -1;
+
+    /**
+     * The value array index of every trace
+     */
+    private int[] cells = new int[16];
+
+    /**
+     * The stored value of every trace. The value is the stored value times scale.
+     */
+    private double[] traces = new double[16];
+
+    /**
+     * The amount of traces
+     */
+    private int size;
+
+    /**
+     * The slot of every cell's trace, or NO_SLOT
+     */
+    private int[] slotOf = new int[0];
+
+    /**
+     * The factor all stored values are multiplied by
+     */
+    private double scale = 1;
+
+    /**
+     * Sets the trace of a cell (replacing traces)
+     * @param cell The index of the cell in the value array: row * numActions + action
+     * @param value The new trace
+     */
+    public void set(int cell, double value) {
+        int slot = slot(cell); // May grow the arrays
+        traces[slot] = value / scale;
+    }
+
+    /**
+     * Adds to the trace of a cell (accumulating traces)
+     * @param cell The index of the cell in the value array: row * numActions + action
+     * @param value The amount to add
+     */
+    public void add(int cell, double value) {
+        int slot = slot(cell);
+        traces[slot] += value / scale;
+    }
+
+    /**
+     * Removes the trace of a cell, if it has one
+     * @param cell The index of the cell in the value array: row * numActions + action
+     */
+    public void remove(int cell) {
+        if(cell >= slotOf.length || slotOf[cell] == NO_SLOT)
+            return;
+        int slot = slotOf[cell];
+        int last = --size;
+        cells[slot] = cells[last];
+        traces[slot] = traces[last];
+        slotOf[cells[slot]] = slot;
+        slotOf[cell] = NO_SLOT;
+    }
+
+    /**
+     * Multiplies every trace by a factor
+     * @param factor The factor, e.g. gamma * lambda
+     */
+    public void decay(double factor) {
+        scale *= factor;
+        if(scale < MIN_TRACE)
+            normalize();
+    }
+
+    /**
+     * Adds step times its trace to every cell with a trace
+     * @param values The value array of the QTable, see QTable.values()
+     * @param step The step, e.g. alpha * delta
+     */
+    public void apply(double[] values, double step) {
+        double scaled = step * scale;
+        for(int i=0; i<size; i++)
+            values[cells[i]] += scaled * traces[i];
+    }
+
+    /**
+     * Removes all traces, e.g. at the end of an episode or after an exploratory action in Watkins's Q(lambda)
+     */
+    public void clear() {
+        for(int i=0; i<size; i++)
+            slotOf[cells[i]] = NO_SLOT;
+        size = 0;
+        scale = 1;
+    }
+
+    /**
+     * @return The amount of cells with a trace
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Scales the stored values by the scale in one batch, dropping the traces that decayed below MIN_TRACE
+     */
+    private void normalize() {
+        int kept = 0;
+        for(int i=0; i<size; i++) {
+            double trace = traces[i] * scale;
+            if(Math.abs(trace) < MIN_TRACE) {
+                slotOf[cells[i]] = NO_SLOT;
+                continue;
+            }
+            cells[kept] = cells[i];
+            traces[kept] = trace;
+            slotOf[cells[kept]] = kept;
+            kept++;
+        }
+        size = kept;
+        scale = 1;
+    }
+
+    /**
+     * @return The slot of a cell's trace, adding a zero trace if it has none
+     */
+    private int slot(int cell) {
+        if(cell >= slotOf.length) {
+            int oldLength = slotOf.length;
+            slotOf = Arrays.copyOf(slotOf, Math.max(cell + 1, oldLength * 2));
+            Arrays.fill(slotOf, oldLength, slotOf.length, NO_SLOT);
+        }
+        int slot = slotOf[cell];
+        if(slot != NO_SLOT)
+            return slot;
+
+        if(size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+            traces = Arrays.copyOf(traces, size * 2);
+        }
+        slot = size++;
+        cells[slot] = cell;
+        traces[slot] = 0;
+        slotOf[cell] = slot;
+        return slot;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * A discrete grid world an agent can act in, one step at a time.
+ *
+ * This is the part of the Malmo API the tabular agents actually use: wait for an observation, read the position
+ * and the rewards that came with it, send a command and wait again. MalmoEnvironment implements it on top of a
+ * live AgentHost and CliffWalkSimulator implements it in plain Java, so agents can train without a Minecraft client.
+ */
+public interface Environment {
+
+    /**
+     * Waits for the first observation of an episode
+     * @return True if we got one, false if the episode ended (or never started properly)
+     */
+    boolean begin();
+
+    /**
+     * Sends a command, e.g. "movenorth 1"
+     * @param command The command to send
+     */
+    void sendCommand(String command);
+
+    /**
+     * Waits for the observation and rewards that follow the last command
+     * @return True if the episode is still running, false if it ended
+     */
+    boolean step();
+
+    /**
+     * @return The X position of the last observation
+     */
+    int getX();
+
+    /**
+     * @return The Z position of the last observation
+     */
+    int getZ();
+
+    /**
+     * @return The sum of the rewards received with the last observation (or with the end of the episode)
+     */
+    double getReward();
+}
@@ -0,0 +1,296 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records what an agent saw and did, episode by episode, so EpisodeReplay can feed it back to an agent later.
+ *
+ * record() wraps the environment of an episode. Everything the agent reads from it (the start position, and the
+ * running flag, reward and position after every command) and every command it sends is kept, together with the
+ * seed the agent was given for the episode and the map it was played on. endEpisode() appends the episode to the file.
+ * The header holds everything else that decides what the agent does: its hyperparameters and initial model, set
+ * with the setters below before the first episode ends. Record agents that plan inline, as planning on a background
+ * thread depends on timing and can't be replayed.
+ *
+ * Layout (big endian, as written by DataOutputStream):
+ * <pre>
+ *   int      magic       'EPIS'
+ *   int      version
+ *   double   epsilon, alpha, gamma, lambda
+ *   boolean  peng
+ *   int      planningSteps, replayCapacity
+ *   double   sweepingThreshold      negative if the agent doesn't sweep
+ *   int      numActions, followed by every action as UTF
+ *   int      initialStates          -1 if the agent started with an empty Q-table, else followed by
+ *            initialStates times: long key, numActions doubles
+ *   episodes, until the end of the file:
+ *     int      map        episodes of the same map were played by the same agent
+ *     long     seed
+ *     boolean  begun
+ *     int      x, z       the start position
+ *     int      steps
+ *     steps times: UTF command, boolean running, double reward, int x, int z
+ * </pre>
+ */
+public class EpisodeRecorder implements Environment, AutoCloseable {
+
+    /**
+     * 'EPIS'
+     */
+    public static final int MAGIC = 0x45504953;
+
+    /**
+     * The current version of the format
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The file
+     */
+    private final DataOutputStream out;
+
+    /**
+     * The actions and hyperparameters of the agent
+     */
+    private final String[] actions;
+    private final double epsilon, alpha, gamma;
+    private double lambda, sweepingThreshold = -1;
+    private boolean peng;
+    private int planningSteps, replayCapacity;
+
+    /**
+     * The Q-table the agent started every map with, or null if it started empty
+     */
+    private QTable initialModel;
+
+    /**
+     * Whether the header has been written
+     */
+    private boolean headerWritten;
+
+    /**
+     * The steps of the current episode, written out at its end
+     */
+    private final ByteArrayOutputStream steps = new ByteArrayOutputStream(4096);
+    private final DataOutputStream stepsOut = new DataOutputStream(steps);
+
+    /**
+     * The environment of the current episode
+     */
+    private Environment environment;
+
+    /**
+     * The map, seed, start and amount of steps of the current episode
+     */
+    private int map;
+    private long seed;
+    private boolean begun;
+    private int startX, startZ, stepCount;
+
+    /**
+     * The last command sent, or "" if none was sent since the last step
+     */
+    private String command = "";
+
+    /**
+     * Creates a new recording, replacing the file if it exists
+     * @param path Where to record to
+     * @param actions The actions of the agent
+     * @param epsilon The epsilon of the agent
+     * @param alpha The learning rate of the agent
+     * @param gamma The value of the future reward of the agent
+     * @throws IOException If the file can't be written
+     */
+    public EpisodeRecorder(Path path, String[] actions, double epsilon, double alpha, double gamma) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        if(absolute.getParent() != null)
+            Files.createDirectories(absolute.getParent());
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(absolute)));
+        this.actions = actions.clone();
+        this.epsilon = epsilon;
+        this.alpha = alpha;
+        this.gamma = gamma;
+    }
+
+    /**
+     * @param lambda The trace decay of the agent, see TabularQAgent.setLambda()
+     * @param peng Whether the agent uses Peng's Q(lambda)
+     */
+    public void setLambda(double lambda, boolean peng) {
+        checkHeaderOpen();
+        this.lambda = lambda;
+        this.peng = peng;
+    }
+
+    /**
+     * @param planningSteps The planning updates of the agent after every real step, see TabularQAgent.setPlanning()
+     * @param replayCapacity How many past steps the agent keeps for planning
+     */
+    public void setPlanning(int planningSteps, int replayCapacity) {
+        checkHeaderOpen();
+        this.planningSteps = planningSteps;
+        this.replayCapacity = replayCapacity;
+    }
+
+    /**
+     * @param sweepingThreshold The threshold of the agent's prioritized sweeping, or negative if it doesn't sweep
+     */
+    public void setSweeping(double sweepingThreshold) {
+        checkHeaderOpen();
+        this.sweepingThreshold = sweepingThreshold;
+    }
+
+    /**
+     * @param initialModel The Q-table the agent starts every map with, or null if it starts empty. Copied.
+     */
+    public void setInitialModel(QTable initialModel) {
+        checkHeaderOpen();
+        if(initialModel != null && initialModel.getNumActions() != actions.length)
+            throw new IllegalArgumentException("Model has " + initialModel.getNumActions() + " actions, the agent " + actions.length);
+        this.initialModel = initialModel == null ? null : initialModel.copy();
+    }
+
+    /**
+     * Throws if the header has been written already
+     */
+    private void checkHeaderOpen() {
+        if(headerWritten)
+            throw new IllegalStateException("The agent can't change once episodes have been recorded");
+    }
+
+    /**
+     * Writes the header, if it hasn't been written yet
+     */
+    private void writeHeader() throws IOException {
+        if(headerWritten)
+            return;
+        headerWritten = true;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeDouble(epsilon);
+        out.writeDouble(alpha);
+        out.writeDouble(gamma);
+        out.writeDouble(lambda);
+        out.writeBoolean(peng);
+        out.writeInt(planningSteps);
+        out.writeInt(replayCapacity);
+        out.writeDouble(sweepingThreshold);
+        out.writeInt(actions.length);
+        for(String action : actions)
+            out.writeUTF(action);
+
+        if(initialModel == null) {
+            out.writeInt(-1);
+        } else {
+            int numActions = initialModel.getNumActions();
+            double[] values = initialModel.values();
+            out.writeInt(initialModel.size());
+            for(int row=0; row<initialModel.size(); row++) {
+                out.writeLong(initialModel.key(row));
+                for(int a=0; a<numActions; a++)
+                    out.writeDouble(values[row * numActions + a]);
+            }
+        }
+    }
+
+    /**
+     * Starts recording an episode
+     * @param environment The environment the episode runs in
+     * @param map The map the episode is played on
+     * @param seed The seed the agent was given for the episode, see TabularQAgent.setSeed()
+     * @return The environment to run the agent in
+     */
+    public Environment record(Environment environment, int map, long seed) {
+        this.environment = environment;
+        this.map = map;
+        this.seed = seed;
+        this.begun = false;
+        this.startX = 0;
+        this.startZ = 0;
+        this.stepCount = 0;
+        this.command = "";
+        steps.reset();
+        return this;
+    }
+
+    /**
+     * Appends the episode to the file
+     * @throws IOException If the file can't be written
+     */
+    public void endEpisode() throws IOException {
+        stepsOut.flush();
+        writeHeader();
+        out.writeInt(map);
+        out.writeLong(seed);
+        out.writeBoolean(begun);
+        out.writeInt(startX);
+        out.writeInt(startZ);
+        out.writeInt(stepCount);
+        steps.writeTo(out);
+        out.flush();
+        environment = null;
+    }
+
+    @Override
+    public boolean begin() {
+        begun = environment.begin();
+        if(begun) {
+            startX = environment.getX();
+            startZ = environment.getZ();
+        }
+        return begun;
+    }
+
+    @Override
+    public void sendCommand(String command) {
+        this.command = command;
+        environment.sendCommand(command);
+    }
+
+    @Override
+    public boolean step() {
+        boolean running = environment.step();
+        try {
+            stepsOut.writeUTF(command);
+            stepsOut.writeBoolean(running);
+            stepsOut.writeDouble(environment.getReward());
+            stepsOut.writeInt(environment.getX());
+            stepsOut.writeInt(environment.getZ());
+        } catch(IOException e) {
+            throw new IllegalStateException(e); // Can't happen, it's written to memory
+        }
+        stepCount++;
+        command = "";
+        return running;
+    }
+
+    @Override
+    public int getX() {
+        return environment.getX();
+    }
+
+    @Override
+    public int getZ() {
+        return environment.getZ();
+    }
+
+    @Override
+    public double getReward() {
+        return environment.getReward();
+    }
+
+    /**
+     * Closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeHeader();
+        } finally {
+            out.close();
+        }
+    }
+}
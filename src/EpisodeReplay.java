@@ -0,0 +1,433 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays episodes recorded by EpisodeRecorder back to an agent, without a Minecraft client or an AgentHost.
+ *
+ * select() picks an episode. From then on, begin() and step() return exactly what the agent saw when it was
+ * recorded, as fast as the agent can take it. The commands the agent sends are compared with the recorded ones:
+ * as long as they match, the agent is in the same state as the recorded one was. Once they don't, the recorded
+ * observations no longer follow from what the agent does, and getDivergence() tells at which step that happened.
+ *
+ * main() replays a whole recording into a fresh agent per map, set up like the recorded one and seeded per episode
+ * like TabularQLearning.main does, so two versions of the agent can be compared step by step and timed on exactly
+ * the same input. Planning is done inline, as planning on a background thread depends on timing.
+ *
+ * Usage: EpisodeReplay file [lambda=x] [peng=true|false] [planning_steps=n] [sweeping_threshold=x] [repeat=1]
+ * The agent parameters default to the recorded ones. Pass them to see how another configuration deviates.
+ */
+public class EpisodeReplay implements Environment {
+
+    /**
+     * The actions and hyperparameters of the recorded agent
+     */
+    private final String[] actions;
+    private final double epsilon, alpha, gamma, lambda, sweepingThreshold;
+    private final boolean peng;
+    private final int planningSteps, replayCapacity;
+
+    /**
+     * The Q-table the recorded agent started every map with, or null if it started empty
+     */
+    private final QTable initialModel;
+
+    /**
+     * The map, seed, start and steps of every episode
+     */
+    private int[] maps = new int[16];
+    private long[] seeds = new long[16];
+    private boolean[] begun = new boolean[16];
+    private int[] startXs = new int[16], startZs = new int[16];
+    private int[] firstSteps = new int[17];
+    private int episodes;
+
+    /**
+     * The command, running flag, reward and position of every step of every episode
+     */
+    private String[] commands = new String[1024];
+    private boolean[] running = new boolean[1024];
+    private double[] rewards = new double[1024];
+    private int[] xs = new int[1024], zs = new int[1024];
+    private int steps;
+
+    /**
+     * The selected episode
+     */
+    private int episode = -1;
+
+    /**
+     * The step the selected episode is at, and the step after the last one of it
+     */
+    private int step, end;
+
+    /**
+     * The first step at which the agent sent another command than the recorded one, or -1
+     */
+    private int divergence;
+
+    /**
+     * Reads a recording
+     * @param path The file EpisodeRecorder wrote
+     * @throws IOException If the file can't be read, isn't a recording or is of another version
+     */
+    public EpisodeReplay(Path path) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(in.readInt() != EpisodeRecorder.MAGIC)
+                throw new IOException(path + " isn't an episode recording");
+            int version = in.readInt();
+            if(version != EpisodeRecorder.VERSION)
+                throw new IOException("Unsupported episode recording version " + version);
+            epsilon = in.readDouble();
+            alpha = in.readDouble();
+            gamma = in.readDouble();
+            lambda = in.readDouble();
+            peng = in.readBoolean();
+            planningSteps = in.readInt();
+            replayCapacity = in.readInt();
+            sweepingThreshold = in.readDouble();
+            actions = new String[in.readInt()];
+            for(int i=0; i<actions.length; i++)
+                actions[i] = in.readUTF();
+
+            int initialStates = in.readInt();
+            if(initialStates < 0) {
+                initialModel = null;
+            } else {
+                initialModel = new QTable(actions.length, initialStates);
+                for(int row=0; row<initialStates; row++) {
+                    if(initialModel.row(in.readLong()) != row)
+                        throw new IOException("Corrupt episode recording (duplicate state key): " + path);
+                    for(int a=0; a<actions.length; a++)
+                        initialModel.set(row, a, in.readDouble());
+                }
+            }
+
+            while(readEpisode(in));
+        }
+    }
+
+    /**
+     * Reads the next episode
+     * @return False at the end of the file
+     */
+    private boolean readEpisode(DataInputStream in) throws IOException {
+        int map;
+        try {
+            map = in.readInt();
+        } catch(EOFException e) {
+            return false;
+        }
+        if(episodes == maps.length)
+            growEpisodes();
+        maps[episodes] = map;
+        seeds[episodes] = in.readLong();
+        begun[episodes] = in.readBoolean();
+        startXs[episodes] = in.readInt();
+        startZs[episodes] = in.readInt();
+        int count = in.readInt();
+        for(int i=0; i<count; i++) {
+            if(steps == commands.length)
+                growSteps();
+            commands[steps] = intern(in.readUTF());
+            running[steps] = in.readBoolean();
+            rewards[steps] = in.readDouble();
+            xs[steps] = in.readInt();
+            zs[steps] = in.readInt();
+            steps++;
+        }
+        firstSteps[++episodes] = steps;
+        return true;
+    }
+
+    /**
+     * @return The action that equals the command, so every step doesn't keep a copy of it
+     */
+    private String intern(String command) {
+        for(String action : actions)
+            if(action.equals(command))
+                return action;
+        return command;
+    }
+
+    /**
+     * Makes room for more episodes
+     */
+    private void growEpisodes() {
+        int length = maps.length * 2;
+        maps = Arrays.copyOf(maps, length);
+        seeds = Arrays.copyOf(seeds, length);
+        begun = Arrays.copyOf(begun, length);
+        startXs = Arrays.copyOf(startXs, length);
+        startZs = Arrays.copyOf(startZs, length);
+        firstSteps = Arrays.copyOf(firstSteps, length + 1);
+    }
+
+    /**
+     * Makes room for more steps
+     */
+    private void growSteps() {
+        int length = commands.length * 2;
+        commands = Arrays.copyOf(commands, length);
+        running = Arrays.copyOf(running, length);
+        rewards = Arrays.copyOf(rewards, length);
+        xs = Arrays.copyOf(xs, length);
+        zs = Arrays.copyOf(zs, length);
+    }
+
+    /**
+     * Selects the episode to play back next
+     * @param episode The index of the episode
+     */
+    public void select(int episode) {
+        if(episode < 0 || episode >= episodes)
+            throw new IndexOutOfBoundsException("Episode " + episode + " of " + episodes);
+        this.episode = episode;
+        this.step = firstSteps[episode] - 1;
+        this.end = firstSteps[episode + 1];
+        this.divergence = -1;
+    }
+
+    /**
+     * @return The actions of the recorded agent
+     */
+    public String[] getActions() {
+        return actions.clone();
+    }
+
+    /**
+     * @return The epsilon of the recorded agent
+     */
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * @return The learning rate of the recorded agent
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return The value of the future reward of the recorded agent
+     */
+    public double getGamma() {
+        return gamma;
+    }
+
+    /**
+     * @return The trace decay of the recorded agent
+     */
+    public double getLambda() {
+        return lambda;
+    }
+
+    /**
+     * @return Whether the recorded agent used Peng's Q(lambda)
+     */
+    public boolean isPeng() {
+        return peng;
+    }
+
+    /**
+     * @return The planning updates of the recorded agent after every real step
+     */
+    public int getPlanningSteps() {
+        return planningSteps;
+    }
+
+    /**
+     * @return How many past steps the recorded agent kept for planning
+     */
+    public int getReplayCapacity() {
+        return replayCapacity;
+    }
+
+    /**
+     * @return The threshold of the recorded agent's prioritized sweeping, or negative if it didn't sweep
+     */
+    public double getSweepingThreshold() {
+        return sweepingThreshold;
+    }
+
+    /**
+     * @return A copy of the Q-table the recorded agent started every map with, or null if it started empty
+     */
+    public QTable getInitialModel() {
+        return initialModel == null ? null : initialModel.copy();
+    }
+
+    /**
+     * @return The amount of recorded episodes
+     */
+    public int getEpisodeCount() {
+        return episodes;
+    }
+
+    /**
+     * @return The amount of steps in an episode
+     */
+    public int getStepCount(int episode) {
+        return firstSteps[episode + 1] - firstSteps[episode];
+    }
+
+    /**
+     * @return The map an episode was played on
+     */
+    public int getMap(int episode) {
+        return maps[episode];
+    }
+
+    /**
+     * @return The seed the agent was given for an episode
+     */
+    public long getSeed(int episode) {
+        return seeds[episode];
+    }
+
+    /**
+     * @return The first step of the selected episode at which the agent sent another command than the recorded
+     *         agent did, or -1 if it sent the same ones so far
+     */
+    public int getDivergence() {
+        return divergence;
+    }
+
+    @Override
+    public boolean begin() {
+        if(episode < 0)
+            throw new IllegalStateException("No episode selected");
+        return begun[episode];
+    }
+
+    @Override
+    public void sendCommand(String command) {
+        int next = step + 1;
+        if(divergence < 0 && (next >= end || !commands[next].equals(command)))
+            divergence = next - firstSteps[episode];
+    }
+
+    @Override
+    public boolean step() {
+        if(step + 1 >= end)
+            return false;
+        step++;
+        return running[step];
+    }
+
+    @Override
+    public int getX() {
+        return step < firstSteps[episode] ? startXs[episode] : xs[step];
+    }
+
+    @Override
+    public int getZ() {
+        return step < firstSteps[episode] ? startZs[episode] : zs[step];
+    }
+
+    @Override
+    public double getReward() {
+        return step < firstSteps[episode] ? 0 : rewards[step];
+    }
+
+    /**
+     * Replays a recording into new agents and reports where they diverged from the recorded ones and how fast
+     */
+    public static void main(String[] argv) throws IOException {
+        if(argv.length == 0) {
+            System.err.println("Usage: EpisodeReplay file [lambda=x] [peng=true|false] [planning_steps=n] [sweeping_threshold=x] [repeat=1]");
+            System.exit(1);
+        }
+        EpisodeReplay replay = new EpisodeReplay(Paths.get(argv[0]));
+        double lambda = replay.getLambda(), sweepingThreshold = replay.getSweepingThreshold();
+        boolean peng = replay.isPeng();
+        int planningSteps = replay.getPlanningSteps(), repeat = 1;
+        for(int i=1; i<argv.length; i++) {
+            int eq = argv[i].indexOf('=');
+            if(eq < 0) {
+                System.err.println("Expected name=value, got " + argv[i]);
+                System.exit(1);
+            }
+            String name = argv[i].substring(0, eq), value = argv[i].substring(eq + 1);
+            switch(name) {
+                case "lambda": lambda = Double.parseDouble(value); break;
+                case "peng": peng = Boolean.parseBoolean(value); break;
+                case "planning_steps": planningSteps = Integer.parseInt(value); break;
+                case "sweeping_threshold": sweepingThreshold = Double.parseDouble(value); break;
+                case "repeat": repeat = Integer.parseInt(value); break;
+                default:
+                    System.err.println("Unknown parameter: " + name);
+                    System.exit(1);
+            }
+        }
+
+        System.out.format("Replaying %d episodes, %d steps\n", replay.getEpisodeCount(), replay.steps);
+
+        for(int r=0; r<repeat; r++) {
+            List<Integer> diverged = new ArrayList<>();
+            int firstDivergence = -1;
+            TabularQLearning.TabularQAgent agent = null;
+            double totalReward = 0;
+            long checksum = 0;
+            long start = System.nanoTime();
+            for(int i=0; i<replay.getEpisodeCount(); i++) {
+                if(agent == null || replay.getMap(i) != replay.getMap(i - 1)) {
+                    if(agent != null)
+                        checksum = checksum * 31 + checksum(agent.getQTable());
+                    agent = new TabularQLearning.TabularQAgent(replay.getActions(),
+                            replay.getEpsilon(), replay.getAlpha(), replay.getGamma(), false, null);
+                    if(replay.initialModel != null)
+                        agent.setQTable(replay.getInitialModel());
+                    agent.setLambda(lambda, peng);
+                    if(sweepingThreshold >= 0)
+                        agent.setSweeping(sweepingThreshold);
+                    agent.setPlanning(planningSteps, replay.getReplayCapacity(), false);
+                }
+                replay.select(i);
+                agent.setSeed(replay.getSeed(i));
+                totalReward += agent.run((Environment) replay);
+                if(replay.getDivergence() >= 0) {
+                    if(diverged.isEmpty())
+                        firstDivergence = replay.getDivergence();
+                    diverged.add(i);
+                }
+            }
+            if(agent != null)
+                checksum = checksum * 31 + checksum(agent.getQTable());
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.format("Run %d: %.0f steps/s, total reward %.1f, Q-table checksum %016x\n",
+                    r + 1, replay.steps / seconds, totalReward, checksum);
+            if(diverged.isEmpty()) {
+                System.out.println("Every episode matched the recording");
+            } else {
+                int first = diverged.get(0);
+                System.out.format("%d episodes diverged, the first one is episode %d (map %d) at step %d\n",
+                        diverged.size(), first, replay.getMap(first), firstDivergence);
+            }
+        }
+    }
+
+    /**
+     * @return A hash of every state and value in a Q-table, exact to the bit
+     */
+    private static long checksum(QTable q) {
+        double[] values = q.values();
+        int numActions = q.getNumActions();
+        long hash = 1125899906842597L;
+        for(int row=0; row<q.size(); row++) {
+            hash = hash * 31 + q.key(row);
+            for(int a=0; a<numActions; a++)
+                hash = hash * 31 + Double.doubleToLongBits(values[row * numActions + a]);
+        }
+        return hash;
+    }
+}
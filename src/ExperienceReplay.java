@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A ring buffer of (state, action, reward, next state) transitions, stored off-heap.
+ *
+ * States are QTable row indexes, which never change for a table, so a transition is 24 bytes in one direct
+ * ByteBuffer and adding one never allocates. Once the buffer is full the oldest transition is overwritten. The
+ * buffer isn't thread-safe: a learner that plans on another thread guards it with the same lock as its table.
+ */
+public class ExperienceReplay {
+
+    /**
+     * The layout of a transition
+     */
+    private static final int STATE = 0, ACTION = 4, REWARD = 8, NEXT_STATE = 16, TRANSITION_BYTES = 24;
+
+    /**
+     * The transitions
+     */
+    private final ByteBuffer transitions;
+
+    /**
+     * The amount of transitions that fit
+     */
+    private final int capacity;
+
+    /**
+     * Where the next transition goes, and how many there are
+     */
+    private int next, size;
+
+    /**
+     * Creates a new, empty buffer
+     * @param capacity How many transitions to keep
+     */
+    public ExperienceReplay(int capacity) {
+        if(capacity <= 0 || capacity > Integer.MAX_VALUE / TRANSITION_BYTES)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        this.capacity = capacity;
+        this.transitions = ByteBuffer.allocateDirect(capacity * TRANSITION_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Adds a transition, overwriting the oldest one if the buffer is full
+     * @param state The row of the state the action was taken in
+     * @param action The action
+     * @param reward The reward that followed
+     * @param nextState The row of the state the action led to, or QTable.NO_ROW if the episode ended
+     */
+    public void add(int state, int action, double reward, int nextState) {
+        int offset = next * TRANSITION_BYTES;
+        transitions.putInt(offset + STATE, state);
+        transitions.putInt(offset + ACTION, action);
+        transitions.putDouble(offset + REWARD, reward);
+        transitions.putInt(offset + NEXT_STATE, nextState);
+        next = next + 1 == capacity ? 0 : next + 1;
+        if(size < capacity)
+            size++;
+    }
+
+    /**
+     * @param i The index of the transition, between 0 and size(). Not in any particular order.
+     * @return The row of the state the action was taken in
+     */
+    public int getState(int i) {
+        return transitions.getInt(i * TRANSITION_BYTES + STATE);
+    }
+
+    /**
+     * @param i The index of the transition
+     * @return The action
+     */
+    public int getAction(int i) {
+        return transitions.getInt(i * TRANSITION_BYTES + ACTION);
+    }
+
+    /**
+     * @param i The index of the transition
+     * @return The reward that followed
+     */
+    public double getReward(int i) {
+        return transitions.getDouble(i * TRANSITION_BYTES + REWARD);
+    }
+
+    /**
+     * @param i The index of the transition
+     * @return The row of the state the action led to, or QTable.NO_ROW if the episode ended
+     */
+    public int getNextState(int i) {
+        return transitions.getInt(i * TRANSITION_BYTES + NEXT_STATE);
+    }
+
+    /**
+     * @return The amount of transitions in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The amount of transitions the buffer keeps
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all transitions, e.g. when their rows no longer mean anything because the table was replaced
+     */
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+}
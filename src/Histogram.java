@@ -0,0 +1,213 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative longs, e.g. latencies in nanoseconds.
+ *
+ * Values go into log-linear buckets: 8 per power of two, so every bucket is at most 12.5% wide and a percentile
+ * is never off by more than that. Recording is a few atomic increments and never allocates, so it's cheap enough
+ * to do on every step from any thread. Readers take a Snapshot, and the difference of two snapshots gives the
+ * values recorded in between.
+ */
+public class Histogram implements HistogramMXBean {
+
+    /**
+     * log2 of the amount of buckets per power of two
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * Enough buckets for every long
+     */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+    /**
+     * Read-only view of a histogram at some point in time
+     */
+    public static class Snapshot {
+        /**
+         * The amount of values in every bucket
+         */
+        private final long[] counts;
+
+        /**
+         * The amount of values, their sum and the largest one
+         */
+        public final long count, sum, max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @param previous An older snapshot of the same histogram
+         * @return The values recorded since the older snapshot. The max is that of all values.
+         */
+        public Snapshot minus(Snapshot previous) {
+            long[] diff = new long[counts.length];
+            for(int i=0; i<diff.length; i++)
+                diff[i] = counts[i] - previous.counts[i];
+            return new Snapshot(diff, count - previous.count, sum - previous.sum, max);
+        }
+
+        /**
+         * @return The average value, or 0 if there are none
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100
+         * @return The lower bound of the bucket the percentile falls in, or 0 if there are no values
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            for(long c : counts)
+                total += c;
+            if(total == 0)
+                return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for(int i=0; i<counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank)
+                    return lowerBound(i);
+            }
+            return lowerBound(counts.length - 1);
+        }
+    }
+
+    /**
+     * The name of the histogram
+     */
+    private final String name;
+
+    /**
+     * The unit of the values, e.g. "ns"
+     */
+    private final String unit;
+
+    /**
+     * The amount of values in every bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The amount of values, their sum and the largest one
+     */
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    /**
+     * Creates a new histogram
+     * @param name The name of the histogram
+     * @param unit The unit of the values, e.g. "ns"
+     */
+    public Histogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Records a value
+     * @param value The value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if(value < 0)
+            value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while(value > m && !max.compareAndSet(m, value))
+            m = max.get();
+    }
+
+    /**
+     * Records the time since a start time
+     * @param startNanos The start time, from System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The values recorded so far. Values recorded while taking it may be partly in it.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for(int i=0; i<BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return new Snapshot(copy, count.get(), sum.get(), max.get());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return snapshot().getPercentile(50);
+    }
+
+    @Override
+    public long get90thPercentile() {
+        return snapshot().getPercentile(90);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long get999thPercentile() {
+        return snapshot().getPercentile(99.9);
+    }
+
+    /**
+     * @return The bucket of a non-negative value
+     */
+    private static int bucket(long value) {
+        if(value < (1 << SUB_BITS))
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The smallest value in a bucket
+     */
+    private static long lowerBound(int bucket) {
+        if(bucket < (1 << SUB_BITS))
+            return bucket;
+        int shift = (bucket >> SUB_BITS) - 1;
+        return (long) ((bucket & ((1 << SUB_BITS) - 1)) | (1 << SUB_BITS)) << shift;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * What a Histogram shows over JMX. Percentiles are bucket lower bounds, in the histogram's unit.
+ */
+public interface HistogramMXBean {
+
+    /**
+     * @return The name of the histogram
+     */
+    String getName();
+
+    /**
+     * @return The unit of the values, e.g. "ns"
+     */
+    String getUnit();
+
+    /**
+     * @return The amount of values recorded
+     */
+    long getCount();
+
+    /**
+     * @return The average value
+     */
+    double getMean();
+
+    /**
+     * @return The largest value
+     */
+    long getMax();
+
+    /**
+     * @return The median
+     */
+    long get50thPercentile();
+
+    /**
+     * @return The 90th percentile
+     */
+    long get90thPercentile();
+
+    /**
+     * @return The 99th percentile
+     */
+    long get99thPercentile();
+
+    /**
+     * @return The 99.9th percentile
+     */
+    long get999thPercentile();
+}
@@ -0,0 +1,281 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Tunes alpha, epsilon, gamma and lambda of the TabularQAgent on the CliffWalkSimulator, on all cores.
+ *
+ * Every configuration is trained from scratch on a few maps (one per seed), and every (configuration, seed) pair
+ * is a task of its own on a ForkJoinPool, so the sweep keeps every core busy however the configurations are
+ * spread out. A run has converged once the agent reached the goal a number of episodes in a row. The results are
+ * ranked by how many episodes that took on average, counting runs that never converged as the full amount.
+ * The maps and the agents are seeded from seed, so every configuration is trained on the same maps and a sweep
+ * with the same seed gives the same results.
+ *
+ * Usage: HyperparameterSweep [alpha=0.05,0.1,0.2] [epsilon=0.01,0.05,0.1] [gamma=0.9,1] [lambda=0]
+ *                            [random=0] [seed=1] [seeds=5] [episodes=2000] [streak=20] [threads=cores]
+ * Each parameter takes a list of values, and every combination is tried. With random=n, n configurations are
+ * drawn instead, each parameter uniformly between the smallest and largest value of its list, also from seed.
+ */
+public class HyperparameterSweep {
+
+    /**
+     * The actions of the cliff walking missions
+     */
+    private static final String[] ACTIONS = {"movenorth 1", "movesouth 1", "movewest 1", "moveeast 1"};
+
+    /**
+     * The hyperparameters of an agent
+     */
+    public static class Config {
+        public final double alpha, epsilon, gamma, lambda;
+
+        public Config(double alpha, double epsilon, double gamma, double lambda) {
+            this.alpha = alpha;
+            this.epsilon = epsilon;
+            this.gamma = gamma;
+            this.lambda = lambda;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("alpha=%.4f epsilon=%.4f gamma=%.4f lambda=%.4f", alpha, epsilon, gamma, lambda);
+        }
+    }
+
+    /**
+     * How a configuration did over all seeds
+     */
+    public static class Result {
+        /**
+         * The configuration
+         */
+        public final Config config;
+
+        /**
+         * The average amount of episodes until the agent converged, counting runs that didn't as the full amount
+         */
+        public final double meanEpisodes;
+
+        /**
+         * How many of the runs converged
+         */
+        public final int converged;
+
+        /**
+         * The average reward of the last 100 episodes
+         */
+        public final double finalReward;
+
+        private Result(Config config, double meanEpisodes, int converged, double finalReward) {
+            this.config = config;
+            this.meanEpisodes = meanEpisodes;
+            this.converged = converged;
+            this.finalReward = finalReward;
+        }
+    }
+
+    /**
+     * The maps to train every configuration on
+     */
+    private final int seeds;
+
+    /**
+     * The seed the maps and the agents are seeded from
+     */
+    private final long seed;
+
+    /**
+     * The most episodes per run
+     */
+    private final int episodes;
+
+    /**
+     * How many times in a row the agent has to reach the goal to have converged
+     */
+    private final int streak;
+
+    /**
+     * Creates a new sweep
+     * @param seeds How many maps to train every configuration on
+     * @param seed The seed to seed the maps and the agents from
+     * @param episodes The most episodes per run
+     * @param streak How many times in a row the agent has to reach the goal to have converged
+     */
+    public HyperparameterSweep(int seeds, long seed, int episodes, int streak) {
+        if(seeds <= 0 || episodes <= 0 || streak <= 0)
+            throw new IllegalArgumentException("seeds, episodes and streak must be positive");
+        this.seeds = seeds;
+        this.seed = seed;
+        this.episodes = episodes;
+        this.streak = streak;
+    }
+
+    /**
+     * @return Every combination of the given values
+     */
+    public static List<Config> grid(double[] alphas, double[] epsilons, double[] gammas, double[] lambdas) {
+        List<Config> configs = new ArrayList<>();
+        for(double alpha : alphas)
+            for(double epsilon : epsilons)
+                for(double gamma : gammas)
+                    for(double lambda : lambdas)
+                        configs.add(new Config(alpha, epsilon, gamma, lambda));
+        return configs;
+    }
+
+    /**
+     * @param count How many configurations to draw
+     * @param random The random to draw with
+     * @return Configurations with every parameter drawn uniformly between the smallest and largest of its values
+     */
+    public static List<Config> random(int count, double[] alphas, double[] epsilons, double[] gammas, double[] lambdas, SplittableRandom random) {
+        List<Config> configs = new ArrayList<>();
+        for(int i=0; i<count; i++)
+            configs.add(new Config(draw(alphas, random), draw(epsilons, random), draw(gammas, random), draw(lambdas, random)));
+        return configs;
+    }
+
+    /**
+     * @return A value drawn uniformly between the smallest and largest of the given values
+     */
+    private static double draw(double[] values, SplittableRandom random) {
+        double min = Arrays.stream(values).min().getAsDouble();
+        double max = Arrays.stream(values).max().getAsDouble();
+        return min == max ? min : min + random.nextDouble() * (max - min);
+    }
+
+    /**
+     * Runs every configuration on every seed
+     * @param configs The configurations
+     * @param pool The pool to run on
+     * @return The results, the configuration that converged in the fewest episodes first
+     */
+    public List<Result> run(List<Config> configs, ForkJoinPool pool) {
+        // Every configuration gets the same maps
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] mapSeeds = new long[seeds];
+        for(int map=0; map<seeds; map++)
+            mapSeeds[map] = random.nextLong();
+
+        // [config][map] = {episodes to convergence or -1, reward of the last 100 episodes}
+        List<List<ForkJoinTask<double[]>>> tasks = new ArrayList<>();
+        for(Config config : configs) {
+            List<ForkJoinTask<double[]>> runs = new ArrayList<>();
+            for(long mapSeed : mapSeeds)
+                runs.add(pool.submit(() -> train(config, mapSeed)));
+            tasks.add(runs);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for(int c=0; c<configs.size(); c++) {
+            double totalEpisodes = 0, totalReward = 0;
+            int converged = 0;
+            for(ForkJoinTask<double[]> run : tasks.get(c)) {
+                double[] outcome = run.join();
+                if(outcome[0] >= 0)
+                    converged++;
+                totalEpisodes += outcome[0] >= 0 ? outcome[0] : episodes;
+                totalReward += outcome[1];
+            }
+            results.add(new Result(configs.get(c), totalEpisodes / seeds, converged, totalReward / seeds));
+        }
+        results.sort(Comparator.comparingDouble((Result r) -> r.meanEpisodes).thenComparingDouble(r -> -r.finalReward));
+        return results;
+    }
+
+    /**
+     * Trains a new agent on one map
+     * @param seed The seed of the map and of the agent's episodes
+     * @return The episode the agent converged at, or -1, and the average reward of the last 100 episodes
+     */
+    private double[] train(Config config, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        CliffWalkSimulator simulator = new CliffWalkSimulator(random.nextLong());
+        TabularQLearning.TabularQAgent agent = new TabularQLearning.TabularQAgent(ACTIONS,
+                config.epsilon, config.alpha, config.gamma, false, null);
+        if(config.lambda > 0)
+            agent.setLambda(config.lambda, false);
+
+        SplittableRandom episodeSeeds = random.split();
+        int convergedAt = -1, successes = 0;
+        double recentReward = 0;
+        for(int episode=0; episode<episodes; episode++) {
+            agent.setSeed(episodeSeeds.nextLong());
+            double reward = agent.run(simulator);
+            successes = reward > 0 ? successes + 1 : 0;
+            if(successes == streak && convergedAt < 0)
+                convergedAt = episode + 1 - streak;
+            if(episode >= episodes - 100)
+                recentReward += reward;
+        }
+        return new double[]{convergedAt, recentReward / Math.min(100, episodes)};
+    }
+
+    /**
+     * Runs a sweep and prints the results
+     */
+    public static void main(String[] argv) {
+        double[] alphas = {0.05, 0.1, 0.2}, epsilons = {0.01, 0.05, 0.1}, gammas = {0.9, 1}, lambdas = {0};
+        int random = 0, seeds = 5, episodes = 2000, streak = 20;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for(String arg : argv) {
+            int eq = arg.indexOf('=');
+            if(eq < 0) {
+                System.err.println("Expected name=value, got " + arg);
+                System.exit(1);
+            }
+            String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+            switch(name) {
+                case "alpha": alphas = parseList(value); break;
+                case "epsilon": epsilons = parseList(value); break;
+                case "gamma": gammas = parseList(value); break;
+                case "lambda": lambdas = parseList(value); break;
+                case "random": random = Integer.parseInt(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "seeds": seeds = Integer.parseInt(value); break;
+                case "episodes": episodes = Integer.parseInt(value); break;
+                case "streak": streak = Integer.parseInt(value); break;
+                case "threads": threads = Integer.parseInt(value); break;
+                default:
+                    System.err.println("Unknown parameter: " + name);
+                    System.exit(1);
+            }
+        }
+
+        SplittableRandom seeder = new SplittableRandom(seed);
+        long mapSeed = seeder.nextLong();
+        List<Config> configs = random > 0
+                ? random(random, alphas, epsilons, gammas, lambdas, seeder.split())
+                : grid(alphas, epsilons, gammas, lambdas);
+        System.out.format("Training %d configurations on %d maps each, %d episodes per map, on %d threads\n",
+                configs.size(), seeds, episodes, threads);
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Result> results = new HyperparameterSweep(seeds, mapSeed, episodes, streak).run(configs, pool);
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.format("%-58s %10s %9s %12s\n", "configuration", "episodes", "converged", "final reward");
+        for(Result result : results)
+            System.out.format("%-58s %10.1f %6d/%-2d %12.2f\n", result.config, result.meanEpisodes, result.converged, seeds, result.finalReward);
+        System.out.format("Done in %.1fs\n", seconds);
+    }
+
+    /**
+     * Parses a comma-separated list of numbers
+     */
+    private static double[] parseList(String value) {
+        String[] parts = value.split(",");
+        double[] values = new double[parts.length];
+        for(int i=0; i<parts.length; i++)
+            values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+}
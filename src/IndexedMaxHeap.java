@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ * A binary max-heap of int keys with double priorities, that knows where every key is.
+ *
+ * Keys are small non-negative ints, e.g. Q-table cells. Because the heap keeps the position of every key, a key
+ * is never in it twice, and raising the priority of a key that is already in it is a sift up instead of a second
+ * entry. Everything is stored in primitive arrays.
+ */
+public class IndexedMaxHeap {
+
+    /**
+     * Marks a key that isn't in the heap
+     */
+    private static final int ABSENT = -1;
+
+    /**
+     * The keys, in heap order
+     */
+    private int[] keys = new int[16];
+
+    /**
+     * The priority of the key at the same position
+     */
+    private double[] priorities = new double[16];
+
+    /**
+     * The position of every key in the heap, or ABSENT
+     */
+    private int[] positions = new int[0];
+
+    /**
+     * The amount of keys in the heap
+     */
+    private int size;
+
+    /**
+     * Adds a key, or raises its priority if it's already in the heap with a lower one
+     * @param key The key, at least 0
+     * @param priority The priority
+     */
+    public void offer(int key, double priority) {
+        if(key >= positions.length) {
+            int oldLength = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(key + 1, oldLength * 2));
+            Arrays.fill(positions, oldLength, positions.length, ABSENT);
+        }
+
+        int position = positions[key];
+        if(position != ABSENT) {
+            if(priority > priorities[position]) {
+                priorities[position] = priority;
+                siftUp(position);
+            }
+            return;
+        }
+
+        if(size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        keys[size] = key;
+        priorities[size] = priority;
+        positions[key] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Removes the key with the highest priority
+     * @return The key
+     */
+    public int poll() {
+        if(size == 0)
+            throw new IllegalStateException("Heap is empty");
+        int top = keys[0];
+        positions[top] = ABSENT;
+        size--;
+        if(size > 0) {
+            keys[0] = keys[size];
+            priorities[0] = priorities[size];
+            positions[keys[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * @return The highest priority in the heap
+     */
+    public double peekPriority() {
+        if(size == 0)
+            throw new IllegalStateException("Heap is empty");
+        return priorities[0];
+    }
+
+    /**
+     * @return The amount of keys in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the heap is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all keys
+     */
+    public void clear() {
+        for(int i=0; i<size; i++)
+            positions[keys[i]] = ABSENT;
+        size = 0;
+    }
+
+    /**
+     * Moves the key at a position up until its parent has a higher priority
+     */
+    private void siftUp(int position) {
+        int key = keys[position];
+        double priority = priorities[position];
+        while(position > 0) {
+            int parent = (position - 1) >>> 1;
+            if(priorities[parent] >= priority)
+                break;
+            move(parent, position);
+            position = parent;
+        }
+        keys[position] = key;
+        priorities[position] = priority;
+        positions[key] = position;
+    }
+
+    /**
+     * Moves the key at a position down until its children have lower priorities
+     */
+    private void siftDown(int position) {
+        int key = keys[position];
+        double priority = priorities[position];
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && priorities[child + 1] > priorities[child])
+                child++;
+            if(priorities[child] <= priority)
+                break;
+            move(child, position);
+            position = child;
+        }
+        keys[position] = key;
+        priorities[position] = priority;
+        positions[key] = position;
+    }
+
+    /**
+     * Moves the key at one position to another
+     */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        priorities[to] = priorities[from];
+        positions[keys[to]] = to;
+    }
+}
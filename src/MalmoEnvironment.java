@@ -0,0 +1,167 @@
+import com.microsoft.msr.malmo.AgentHost;
+
+/**
+ * An Environment backed by a running Malmo mission.
+ *
+ * Steps come from a WorldStatePump, and the position is decoded from the XPos/ZPos fields of the
+ * ObservationFromFullStats observation.
+ */
+public class MalmoEnvironment implements Environment {
+
+    /**
+     * The slot of XPos in the observation decoder
+     */
+    private static final int X_POS = 0;
+
+    /**
+     * The slot of ZPos in the observation decoder
+     */
+    private static final int Z_POS = 1;
+
+    /**
+     * The host of the mission
+     */
+    private final AgentHost agentHost;
+
+    /**
+     * The pump that polls the host
+     */
+    private final WorldStatePump pump;
+
+    /**
+     * Decodes the position out of the observations
+     */
+    private final ObservationDecoder observation = new ObservationDecoder("XPos", "ZPos");
+
+    /**
+     * The position of the last observation
+     */
+    private int x, z;
+
+    /**
+     * The rewards of the last step
+     */
+    private double reward;
+
+    /**
+     * When the last command was sent (System.nanoTime()), or 0 if its observation has arrived already
+     */
+    private long commandSentAt;
+
+    /**
+     * When the last step (or the start of the episode) was returned to the agent (System.nanoTime())
+     */
+    private long lastStepAt;
+
+    /**
+     * Creates a new environment
+     * @param agentHost The host of the mission
+     * @param pump The pump that polls agentHost
+     */
+    public MalmoEnvironment(AgentHost agentHost, WorldStatePump pump) {
+        this.agentHost = agentHost;
+        this.pump = pump;
+    }
+
+    @Override
+    public boolean begin() {
+        reward = 0;
+
+        WorldStateSnapshot worldState;
+        try {
+            worldState = pump.awaitStep(false);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        worldState.printErrors();
+
+        if(!worldState.isMissionRunning())
+            return false; // Quit if mission ended before it should
+
+        if(worldState.getFrameCount() <= 0) {
+            System.err.println("We haven't received any video frames!");
+            return false;
+        }
+
+        if(!decode(worldState))
+            return false;
+        lastStepAt = System.nanoTime();
+        return true;
+    }
+
+    @Override
+    public void sendCommand(String command) {
+        agentHost.sendCommand(command);
+        commandSentAt = System.nanoTime();
+    }
+
+    @Override
+    public boolean step() {
+        reward = 0;
+        while(true) {
+            WorldStateSnapshot worldState;
+            try {
+                worldState = pump.awaitStep(true);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            worldState.printErrors();
+            reward += worldState.getRewardSum();
+
+            if(!worldState.isMissionRunning()) {
+                System.out.println("Mission ended");
+                return false;
+            }
+            if(decode(worldState)) {
+                Metrics.JNI_CALLS.record(pump.getLastStepJniCalls());
+                if(commandSentAt != 0) {
+                    Metrics.COMMAND_LATENCY.recordSince(commandSentAt);
+                    commandSentAt = 0;
+                }
+                long now = System.nanoTime();
+                Metrics.STEP.record(now - lastStepAt);
+                lastStepAt = now;
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getZ() {
+        return z;
+    }
+
+    @Override
+    public double getReward() {
+        return reward;
+    }
+
+    /**
+     * Decodes the position out of the first observation
+     * @param worldState The world state
+     * @return True if the observation had a position
+     */
+    private boolean decode(WorldStateSnapshot worldState) {
+        if(worldState.getObservationCount() == 0) {
+            System.err.println("Received no observations");
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean decoded = observation.decode(worldState.getObservation(0));
+        Metrics.DECODE.recordSince(start);
+        if(!decoded) {
+            System.err.println("Received invalid observations - no 'XPos' or 'ZPos' found");
+            return false;
+        }
+        x = observation.getInt(X_POS);
+        z = observation.getInt(Z_POS);
+        return true;
+    }
+}
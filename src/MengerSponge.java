@@ -0,0 +1,107 @@
+/**
+ * Generates the DrawingDecorator XML for a Menger sponge, as used by Tutorial3 and Tutorial4.
+ *
+ * Kept out of the tutorials so it can be used (and benchmarked) without loading the Malmo JNI.
+ */
+public class MengerSponge {
+
+    private MengerSponge() {
+    }
+
+    /**
+     * Creates a fancy cube
+     * @param xorg X pos starting position
+     * @param yorg Y pos starting position
+     * @param zorg Z pos starting position
+     * @param size The size that the cube expands to in each direction
+     * @param blocktype The block type used for the frame
+     * @param holetype The block type used for the holes
+     * @return The XML string to be used in the Mission XML
+     */
+    public static String menger(int xorg, int yorg, int zorg, int size, String blocktype, String holetype) {
+        return menger(xorg, yorg, zorg, size, blocktype, null, holetype);
+    }
+
+    /**
+     * Creates a fancy cube out of a variant of a block type
+     * @param xorg X pos starting position
+     * @param yorg Y pos starting position
+     * @param zorg Z pos starting position
+     * @param size The size that the cube expands to in each direction
+     * @param blocktype The block type used for the frame
+     * @param variant The variant of the blocktype
+     * @param holetype The block type used for the holes
+     * @return The XML string to be used in the Mission XML
+     */
+    public static String menger(int xorg, int yorg, int zorg, int size, String blocktype, String variant, String holetype) {
+        StringBuilder genString = new StringBuilder(estimateLength(size));
+        menger(new DecoratorWriter(genString), xorg, yorg, zorg, size, blocktype, variant, holetype);
+        return genString.toString();
+    }
+
+    /**
+     * Creates a fancy cube with as few decorator elements as possible: the holes carved into holes that were
+     * already there are merged away by a DecoratorOptimizer. Builds the same cube as menger().
+     * @param xorg X pos starting position
+     * @param yorg Y pos starting position
+     * @param zorg Z pos starting position
+     * @param size The size that the cube expands to in each direction
+     * @param blocktype The block type used for the frame
+     * @param variant The variant of the blocktype, or null for none
+     * @param holetype The block type used for the holes
+     * @return The XML string to be used in the Mission XML
+     */
+    public static String coalesced(int xorg, int yorg, int zorg, int size, String blocktype, String variant, String holetype) {
+        DecoratorOptimizer optimizer = new DecoratorOptimizer();
+        menger(optimizer, xorg, yorg, zorg, size, blocktype, variant, holetype);
+        StringBuilder genString = new StringBuilder(estimateLength(size));
+        optimizer.write(new DecoratorWriter(genString));
+        return genString.toString();
+    }
+
+    /**
+     * Writes a fancy cube
+     * @param out Where to write the decorator elements, e.g. straight into the mission XML
+     * @param xorg X pos starting position
+     * @param yorg Y pos starting position
+     * @param zorg Z pos starting position
+     * @param size The size that the cube expands to in each direction
+     * @param blocktype The block type used for the frame
+     * @param variant The variant of the blocktype, or null for none
+     * @param holetype The block type used for the holes
+     */
+    public static void menger(Decorator out, int xorg, int yorg, int zorg, int size, String blocktype, String variant, String holetype) {
+        // Draw a solid chunk
+        out.drawCuboid(xorg, yorg, zorg, xorg+size-1, yorg+size-1, zorg+size-1, blocktype, variant);
+
+        // Remove holes
+        int unit = size;
+        while(unit >= 3) {
+            int w = unit / 3;
+            for(int i=0; i<size; i+=unit) {
+                for(int j=0; j<size; j+=unit) {
+                    int x, y, z;
+                    x = xorg+i;
+                    y = yorg+j;
+                    out.drawCuboid(x+w, y+w, zorg, x+2*w-1, y+2*w-1, zorg+size-1, holetype);
+                    y = yorg+i;
+                    z = zorg+j;
+                    out.drawCuboid(xorg, y+w, z+w, xorg+size-1, y+2*w-1, z+2*w-1, holetype);
+                    out.drawCuboid(x+w, yorg, z+w, x+2*w-1, yorg+size-1, z+2*w-1, holetype);
+                }
+            }
+            unit /= 3;
+        }
+    }
+
+    /**
+     * @param size The size of a sponge
+     * @return Roughly how many characters the sponge's decorator elements take up
+     */
+    private static int estimateLength(int size) {
+        long cuboids = 1;
+        for(int unit=size; unit>=3; unit/=3)
+            cuboids += 3L * (size / unit) * (size / unit);
+        return (int) Math.min(Integer.MAX_VALUE - 16, cuboids * 100);
+    }
+}
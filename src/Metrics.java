@@ -0,0 +1,93 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The histograms the examples record into, also available over JMX as malmo.examples:type=Histogram,name=...
+ *
+ * Times are in nanoseconds. A MetricsReporter turns them into rates and percentiles per interval.
+ */
+public final class Metrics {
+
+    /**
+     * Every histogram, in the order they were registered
+     */
+    private static final List<Histogram> HISTOGRAMS = new ArrayList<>();
+
+    /**
+     * One step of a Malmo mission: from one observation reaching the agent until the next, so acting and waiting.
+     * The rate of this is the steps per second. Simulated and replayed episodes don't record it.
+     */
+    public static final Histogram STEP = register("step", "ns");
+
+    /**
+     * From sending a command until the observation that follows it has been decoded
+     */
+    public static final Histogram COMMAND_LATENCY = register("commandLatency", "ns");
+
+    /**
+     * One peek loop of a WorldStatePump, from the request until the step was complete
+     */
+    public static final Histogram PEEK_LOOP = register("peekLoop", "ns");
+
+    /**
+     * Decoding the JSON observation of a step
+     */
+    public static final Histogram DECODE = register("decode", "ns");
+
+    /**
+     * Drawing (or sampling) the Q-table for a step
+     */
+    public static final Histogram DRAW_Q = register("drawQ", "ns");
+
+    /**
+     * From the first startMission() until the mission began, including retries
+     */
+    public static final Histogram MISSION_START = register("missionStart", "ns");
+
+    /**
+     * The amount of calls into Malmo (JNI) the pump made for a step: polling, capturing it and grabbing its frames
+     */
+    public static final Histogram JNI_CALLS = register("jniCallsPerStep", "calls");
+
+    private Metrics() {
+    }
+
+    /**
+     * Creates a histogram and registers it with the platform MBean server
+     * @param name The name of the histogram, unique
+     * @param unit The unit of the values, e.g. "ns"
+     * @return The histogram
+     */
+    public static Histogram register(String name, String unit) {
+        Histogram histogram = new Histogram(name, unit);
+        synchronized(HISTOGRAMS) {
+            HISTOGRAMS.add(histogram);
+        }
+
+        try {
+            ObjectName objectName = new ObjectName("malmo.examples:type=Histogram,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(histogram, HistogramMXBean.class, true), objectName);
+        } catch(InstanceAlreadyExistsException e) {
+            System.err.println("Histogram " + name + " is registered twice, only the first is available over JMX");
+        } catch(JMException e) {
+            System.err.println("Couldn't register histogram " + name + " with JMX: " + e.getMessage());
+        }
+        return histogram;
+    }
+
+    /**
+     * @return Every histogram, in the order they were registered
+     */
+    public static List<Histogram> getHistograms() {
+        synchronized(HISTOGRAMS) {
+            return Collections.unmodifiableList(new ArrayList<>(HISTOGRAMS));
+        }
+    }
+}
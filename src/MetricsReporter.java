@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps the Metrics histograms to a directory at a fixed interval, on its own thread.
+ *
+ * Every interval appends a row per histogram to metrics.csv, and replaces metrics.json with the same numbers.
+ * The rows hold what was recorded during that interval: the count, the rate per second, the mean and the
+ * percentiles. The max is that of the whole run.
+ */
+public class MetricsReporter implements AutoCloseable {
+
+    /**
+     * The CSV columns
+     */
+    private static final String CSV_HEADER = "time,name,unit,count,ratePerSecond,mean,p50,p90,p99,p999,max\n";
+
+    /**
+     * Where the files go
+     */
+    private final Path directory;
+
+    /**
+     * Runs the dumps
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The snapshots of the previous dump, by histogram name
+     */
+    private final Map<String, Histogram.Snapshot> previous = new HashMap<>();
+
+    /**
+     * When the previous dump was taken, from System.nanoTime()
+     */
+    private long previousNanos = System.nanoTime();
+
+    /**
+     * Creates and starts a new reporter
+     * @param directory Where to write metrics.csv and metrics.json. Created if it doesn't exist.
+     * @param intervalSeconds How often to dump
+     * @throws IOException If the directory can't be created
+     */
+    public MetricsReporter(Path directory, long intervalSeconds) throws IOException {
+        if(intervalSeconds <= 0)
+            throw new IllegalArgumentException("intervalSeconds must be positive: " + intervalSeconds);
+        this.directory = Files.createDirectories(directory);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes what was recorded since the last dump
+     */
+    private synchronized void dump() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - previousNanos) / 1e9);
+        previousNanos = now;
+        String time = Instant.now().toString();
+
+        List<Histogram> histograms = Metrics.getHistograms();
+        StringBuilder csv = new StringBuilder();
+        StringBuilder json = new StringBuilder("{\n  \"time\": \"").append(time)
+                .append("\",\n  \"intervalSeconds\": ").append(format(seconds)).append(",\n  \"histograms\": {");
+        for(int i=0; i<histograms.size(); i++) {
+            Histogram histogram = histograms.get(i);
+            Histogram.Snapshot total = histogram.snapshot();
+            Histogram.Snapshot last = previous.put(histogram.getName(), total);
+            Histogram.Snapshot interval = last == null ? total : total.minus(last);
+
+            String rate = format(interval.count / seconds);
+            String mean = format(interval.getMean());
+            long p50 = interval.getPercentile(50), p90 = interval.getPercentile(90);
+            long p99 = interval.getPercentile(99), p999 = interval.getPercentile(99.9);
+
+            csv.append(time).append(',').append(histogram.getName()).append(',').append(histogram.getUnit())
+                    .append(',').append(interval.count).append(',').append(rate).append(',').append(mean)
+                    .append(',').append(p50).append(',').append(p90).append(',').append(p99).append(',').append(p999)
+                    .append(',').append(interval.max).append('\n');
+
+            json.append(i == 0 ? "\n" : ",\n").append("    \"").append(histogram.getName()).append("\": {")
+                    .append("\"unit\": \"").append(histogram.getUnit()).append('"')
+                    .append(", \"count\": ").append(interval.count)
+                    .append(", \"ratePerSecond\": ").append(rate)
+                    .append(", \"mean\": ").append(mean)
+                    .append(", \"p50\": ").append(p50)
+                    .append(", \"p90\": ").append(p90)
+                    .append(", \"p99\": ").append(p99)
+                    .append(", \"p999\": ").append(p999)
+                    .append(", \"max\": ").append(interval.max).append('}');
+        }
+        json.append("\n  }\n}\n");
+
+        try {
+            Path csvFile = directory.resolve("metrics.csv");
+            boolean exists = Files.exists(csvFile);
+            try(Writer writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if(!exists)
+                    writer.write(CSV_HEADER);
+                writer.write(csv.toString());
+            }
+
+            Path jsonFile = directory.resolve("metrics.json");
+            Path tmp = directory.resolve("metrics.json.tmp");
+            Files.write(tmp, json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, jsonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            System.err.println("Couldn't write metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats a number for CSV and JSON, the same in every locale
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Stops the reporter, after one last dump
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dump();
+    }
+}
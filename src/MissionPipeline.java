@@ -0,0 +1,210 @@
+import com.microsoft.msr.malmo.AgentHost;
+import com.microsoft.msr.malmo.MissionRecordSpec;
+import com.microsoft.msr.malmo.MissionSpec;
+import com.microsoft.msr.malmo.WorldState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts missions in the background, so the next episode can start while the current one is still running.
+ *
+ * Every Minecraft client gets a lane: an AgentHost with a MissionRunner for just that client, and a pump and
+ * environment for it. start() queues a mission on a single starter thread, which takes the healthiest idle lane
+ * and starts the mission on it with the lane's runner. With two or more clients the next mission is started on
+ * another client while the agent is busy with the current one, so episodes run back-to-back. With one client it
+ * starts as soon as the current episode releases its lane, which is no slower than starting it inline.
+ *
+ * A mission started ahead keeps running until it's taken, so it can time out or end before the agent gets to it.
+ * take() checks for that and starts such a mission again instead of handing the agent a dead episode.
+ */
+public class MissionPipeline implements AutoCloseable {
+
+    /**
+     * How often take() starts a mission again that ended before it was taken
+     */
+    private static final int MAX_RESTARTS = 3;
+
+    /**
+     * A client and everything needed to run missions on it
+     */
+    public static class Lane {
+        /**
+         * The host that runs missions on this lane's client
+         */
+        public final AgentHost agentHost;
+
+        /**
+         * The environment of the mission running on this lane
+         */
+        public final MalmoEnvironment environment;
+
+        /**
+         * Starts missions on this lane's client, and keeps track of its health
+         */
+        public final MissionRunner runner;
+
+        /**
+         * Polls agentHost for the environment
+         */
+        private final WorldStatePump pump;
+
+        private Lane(String address) {
+            this.agentHost = new AgentHost();
+            this.runner = new MissionRunner(agentHost, address);
+            this.pump = new WorldStatePump(agentHost);
+            this.environment = new MalmoEnvironment(agentHost, pump);
+        }
+    }
+
+    /**
+     * The experiment ID to start missions with
+     */
+    private final String experimentId;
+
+    /**
+     * All lanes
+     */
+    private final List<Lane> lanes;
+
+    /**
+     * The lanes that aren't running a mission
+     */
+    private final BlockingQueue<Lane> idle = new LinkedBlockingQueue<>();
+
+    /**
+     * Starts the missions, one at a time
+     */
+    private final ExecutorService starter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mission-starter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a new pipeline
+     * @param experimentId The experiment ID to start missions with
+     * @param clients The Minecraft clients to use, as host:port. Two or more let missions start back-to-back.
+     */
+    public MissionPipeline(String experimentId, String... clients) {
+        if(clients.length == 0)
+            throw new IllegalArgumentException("Need at least one client");
+        this.experimentId = experimentId;
+
+        List<Lane> lanes = new ArrayList<>();
+        for(String client : clients) {
+            Lane lane = new Lane(client.trim());
+            lanes.add(lane);
+            idle.add(lane);
+        }
+        this.lanes = Collections.unmodifiableList(lanes);
+    }
+
+    /**
+     * @return All lanes, one per client
+     */
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Starts a mission on an idle lane, in the background. Missions start in the order they're queued.
+     * @param mission The mission to start. Don't change it until the mission has started.
+     * @param missionRecord What to record of the mission
+     * @return The lane the mission is running on, once it has begun. Fails if the mission couldn't be started.
+     */
+    public Future<Lane> start(MissionSpec mission, MissionRecordSpec missionRecord) {
+        return starter.submit(() -> {
+            Lane lane = takeHealthiest();
+            try {
+                lane.runner.start(mission, missionRecord, 0, experimentId);
+                return lane;
+            } catch(Exception e) {
+                idle.add(lane);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Waits for a mission queued with start() and hands over its lane
+     * @param started What start() returned
+     * @param mission The mission that was started, to start it again if it ended before it was taken
+     * @param missionRecord What to record of the mission
+     * @return The lane the mission is running on. Its mission only ended already if it kept ending on restarts.
+     * @throws ExecutionException If the mission couldn't be started
+     * @throws InterruptedException If we're interrupted while waiting
+     */
+    public Lane take(Future<Lane> started, MissionSpec mission, MissionRecordSpec missionRecord) throws ExecutionException, InterruptedException {
+        Lane lane = started.get();
+        for(int restart=0; restart<MAX_RESTARTS && !isMissionRunning(lane); restart++) {
+            System.err.println("Mission ended before it was taken, starting it again");
+            release(lane);
+            lane = start(mission, missionRecord).get();
+        }
+        return lane;
+    }
+
+    /**
+     * @return Whether the mission on the lane is still running
+     */
+    private static boolean isMissionRunning(Lane lane) {
+        WorldState state = lane.agentHost.peekWorldState();
+        boolean running = state.getIsMissionRunning();
+        state.delete(); // Free the proxy now instead of waiting for its finalizer
+        return running;
+    }
+
+    /**
+     * Hands a lane back once its mission has ended, so the next mission can start on it
+     * @param lane The lane
+     */
+    public void release(Lane lane) {
+        idle.add(lane);
+    }
+
+    /**
+     * Waits for an idle lane, preferring one whose client is healthy if there's a choice
+     */
+    private Lane takeHealthiest() throws InterruptedException {
+        Lane lane = idle.take();
+        if(lane.runner.isHealthy())
+            return lane;
+
+        List<Lane> others = new ArrayList<>();
+        idle.drainTo(others);
+        for(int i=0; i<others.size(); i++) {
+            Lane other = others.get(i);
+            if(other.runner.isHealthy()) {
+                others.set(i, lane);
+                lane = other;
+                break;
+            }
+        }
+        idle.addAll(others);
+        return lane;
+    }
+
+    /**
+     * Stops starting missions and stops the pumps of all lanes
+     */
+    @Override
+    public void close() {
+        starter.shutdownNow();
+        try {
+            starter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for(Lane lane : lanes)
+            lane.pump.close();
+    }
+}
@@ -0,0 +1,382 @@
+import com.microsoft.msr.malmo.AgentHost;
+import com.microsoft.msr.malmo.ClientInfo;
+import com.microsoft.msr.malmo.ClientPool;
+import com.microsoft.msr.malmo.MissionRecordSpec;
+import com.microsoft.msr.malmo.MissionSpec;
+import com.microsoft.msr.malmo.WorldState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts a mission, waits for it to begin and waits for it to end.
+ *
+ * Every attempt goes to a single client, so a failure can be blamed on the right one. The client is picked by
+ * health: a client that failed a few times in a row is left alone for a while, which grows with every further
+ * failure. Attempts are spaced with exponential back-off and jitter. An attempt fails when startMission() throws
+ * or when the mission doesn't begin within the begin timeout.
+ *
+ * Malmo has no callbacks for a mission beginning or ending, so the world state is polled. The interval starts at
+ * a millisecond and grows up to MAX_POLL_NANOS, so short starts are noticed right away.
+ */
+public class MissionRunner {
+
+    /**
+     * How a client has been doing
+     */
+    public static class ClientStats {
+        /**
+         * The client, as host:port
+         */
+        public final String address;
+
+        /**
+         * A pool with just this client
+         */
+        private final ClientPool pool;
+
+        /**
+         * Start attempts, failed ones and failed ones in a row
+         */
+        private int attempts, failures, consecutiveFailures;
+
+        /**
+         * Until when (System.nanoTime()) the client is left alone
+         */
+        private long quarantinedUntil;
+
+        /**
+         * The average time from startMission() until the mission began, or -1 if it never did
+         */
+        private double averageStartMillis = -1;
+
+        private ClientStats(String address) {
+            int colon = address.lastIndexOf(':');
+            if(colon < 0)
+                throw new IllegalArgumentException("Client address must be host:port, got " + address);
+            this.address = address;
+            this.pool = new ClientPool();
+            this.pool.add(new ClientInfo(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            this.quarantinedUntil = System.nanoTime();
+        }
+
+        /**
+         * @return How many missions were tried on this client
+         */
+        public synchronized int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return How many missions failed to start on this client
+         */
+        public synchronized int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The average time it took a mission to begin on this client, or -1 if none did
+         */
+        public synchronized double getAverageStartMillis() {
+            return averageStartMillis;
+        }
+
+        /**
+         * @return Whether the client isn't being left alone after failing
+         */
+        public synchronized boolean isHealthy() {
+            return System.nanoTime() - quarantinedUntil >= 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %d attempts, %d failures, %.0f ms to begin%s", address, attempts, failures,
+                    averageStartMillis, isHealthy() ? "" : " (unhealthy)");
+        }
+    }
+
+    /**
+     * The longest interval between two polls of the world state
+     */
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * A client is left alone after failing this many times in a row
+     */
+    private static final int FAILURE_THRESHOLD = 2;
+
+    /**
+     * How long a failing client is left alone at first, and at most
+     */
+    private static final long MIN_QUARANTINE_MILLIS = 5000, MAX_QUARANTINE_MILLIS = 120000;
+
+    /**
+     * The host to run missions with
+     */
+    private final AgentHost agentHost;
+
+    /**
+     * The clients we can start missions on
+     */
+    private final List<ClientStats> clients;
+
+    /**
+     * How many attempts to make, and the delay after the first failed one and at most
+     */
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 250, maxBackoffMillis = 8000;
+
+    /**
+     * How long a mission may take to begin
+     */
+    private long beginTimeoutMillis = 60000;
+
+    /**
+     * Creates a runner for the local client at 127.0.0.1:10000
+     * @param agentHost The host to run missions with
+     */
+    public MissionRunner(AgentHost agentHost) {
+        this(agentHost, "127.0.0.1:10000");
+    }
+
+    /**
+     * Creates a new runner
+     * @param agentHost The host to run missions with
+     * @param clients The Minecraft clients to start missions on, as host:port
+     */
+    public MissionRunner(AgentHost agentHost, String... clients) {
+        if(clients.length == 0)
+            throw new IllegalArgumentException("Need at least one client");
+        this.agentHost = agentHost;
+
+        List<ClientStats> stats = new ArrayList<>();
+        for(String client : clients)
+            stats.add(new ClientStats(client.trim()));
+        this.clients = Collections.unmodifiableList(stats);
+    }
+
+    /**
+     * @param maxAttempts How many times to try starting a mission before giving up
+     * @param initialMillis How long to wait after the first failed attempt. Doubles with every further one.
+     * @param maxMillis The longest to wait between two attempts
+     */
+    public void setBackoff(int maxAttempts, long initialMillis, long maxMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = Math.max(initialMillis, maxMillis);
+    }
+
+    /**
+     * @param beginTimeoutMillis How long a mission may take to begin before the attempt counts as failed
+     */
+    public void setBeginTimeout(long beginTimeoutMillis) {
+        this.beginTimeoutMillis = beginTimeoutMillis;
+    }
+
+    /**
+     * @return How every client has been doing
+     */
+    public List<ClientStats> getClients() {
+        return clients;
+    }
+
+    /**
+     * @return Whether any client is healthy
+     */
+    public boolean isHealthy() {
+        for(ClientStats client : clients)
+            if(client.isHealthy())
+                return true;
+        return false;
+    }
+
+    /**
+     * Starts a single-agent mission and waits for it to begin
+     * @param mission The mission to start
+     * @param missionRecord What to record of the mission
+     * @return The world state in which the mission had begun
+     * @throws Exception The error of the last attempt, if the mission couldn't be started
+     */
+    public WorldStateSnapshot start(MissionSpec mission, MissionRecordSpec missionRecord) throws Exception {
+        return start(mission, missionRecord, 0, "");
+    }
+
+    /**
+     * Starts a mission and waits for it to begin
+     * @param mission The mission to start
+     * @param missionRecord What to record of the mission
+     * @param role The role of our agent in the mission
+     * @param experimentId The ID that all agents of the mission share
+     * @return The world state in which the mission had begun
+     * @throws Exception The error of the last attempt, if the mission couldn't be started
+     */
+    public WorldStateSnapshot start(MissionSpec mission, MissionRecordSpec missionRecord, int role, String experimentId) throws Exception {
+        return start(mission, null, missionRecord, role, experimentId);
+    }
+
+    /**
+     * Starts a mission on a pool of clients and waits for it to begin. Malmo picks the client, so the health of
+     * the clients isn't tracked. This is what the agents of a multi-agent mission do: they all pass the same pool.
+     * @param mission The mission to start
+     * @param clientPool The clients Malmo may use, or null to pick one of ours by health
+     * @param missionRecord What to record of the mission
+     * @param role The role of our agent in the mission
+     * @param experimentId The ID that all agents of the mission share
+     * @return The world state in which the mission had begun
+     * @throws Exception The error of the last attempt, if the mission couldn't be started
+     */
+    public WorldStateSnapshot start(MissionSpec mission, ClientPool clientPool, MissionRecordSpec missionRecord, int role, String experimentId) throws Exception {
+        long firstAttempt = System.nanoTime();
+        for(int attempt=1; ; attempt++) {
+            ClientStats client = clientPool == null ? pick() : null;
+            long started = System.nanoTime();
+            try {
+                if(client != null) {
+                    synchronized(client) {
+                        client.attempts++;
+                    }
+                }
+                agentHost.startMission(mission, client != null ? client.pool : clientPool, missionRecord, role, experimentId);
+                WorldStateSnapshot worldState = awaitBegin(started + TimeUnit.MILLISECONDS.toNanos(beginTimeoutMillis));
+                if(client != null)
+                    succeeded(client, System.nanoTime() - started);
+                Metrics.MISSION_START.recordSince(firstAttempt);
+                return worldState;
+            } catch(InterruptedException e) {
+                throw e;
+            } catch(Exception e) {
+                if(client != null)
+                    failed(client);
+                if(attempt >= maxAttempts)
+                    throw e;
+
+                long delay = backoff(attempt);
+                System.err.format("Couldn't start the mission on %s (attempt %d/%d): %s. Retrying in %d ms.\n",
+                        client != null ? client.address : "the client pool", attempt, maxAttempts, e.getMessage(), delay);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Waits for the running mission to end, printing its errors
+     * @param timeoutMillis How long to wait at most, or 0 to wait as long as it takes
+     * @return The world state in which the mission had ended
+     * @throws InterruptedException If we're interrupted while waiting
+     * @throws TimeoutException If the mission is still running after the timeout
+     */
+    public WorldStateSnapshot awaitEnd(long timeoutMillis) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long park = TimeUnit.MILLISECONDS.toNanos(1);
+        WorldStateSnapshot snapshot = new WorldStateSnapshot();
+        while(true) {
+            capture(snapshot).printErrors();
+            if(!snapshot.isMissionRunning())
+                return snapshot;
+
+            if(timeoutMillis > 0 && System.nanoTime() - deadline >= 0)
+                throw new TimeoutException("Mission still running after " + timeoutMillis + " ms");
+            park = park(park);
+        }
+    }
+
+    /**
+     * Waits for the mission we just started to begin
+     */
+    private WorldStateSnapshot awaitBegin(long deadline) throws InterruptedException, TimeoutException {
+        long park = TimeUnit.MILLISECONDS.toNanos(1);
+        WorldStateSnapshot snapshot = new WorldStateSnapshot();
+        while(true) {
+            capture(snapshot).printErrors();
+            if(snapshot.hasMissionBegun())
+                return snapshot;
+
+            if(System.nanoTime() - deadline >= 0)
+                throw new TimeoutException("Mission didn't begin within " + beginTimeoutMillis + " ms");
+            park = park(park);
+        }
+    }
+
+    /**
+     * Parks for a poll interval
+     * @return The next, longer interval
+     */
+    private static long park(long nanos) throws InterruptedException {
+        LockSupport.parkNanos(nanos);
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        return Math.min(nanos * 2, MAX_POLL_NANOS);
+    }
+
+    /**
+     * @return The healthy client with the fewest failures, or the one that becomes healthy first if none is
+     */
+    private ClientStats pick() {
+        ClientStats best = null;
+        long bestScore = Long.MAX_VALUE;
+        long now = System.nanoTime();
+        for(ClientStats client : clients) {
+            long score;
+            synchronized(client) {
+                score = client.isHealthy() ? client.failures - Long.MAX_VALUE / 2 : client.quarantinedUntil - now;
+            }
+            if(score < bestScore) {
+                best = client;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param attempt The attempt that failed, starting at 1
+     * @return How long to wait before the next attempt: exponential back-off with equal jitter
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Records a mission that began on a client
+     */
+    private static void succeeded(ClientStats client, long startNanos) {
+        double millis = startNanos / 1e6;
+        synchronized(client) {
+            client.consecutiveFailures = 0;
+            client.quarantinedUntil = System.nanoTime();
+            client.averageStartMillis = client.averageStartMillis < 0 ? millis : 0.8 * client.averageStartMillis + 0.2 * millis;
+        }
+    }
+
+    /**
+     * Records a mission that failed to start on a client, leaving it alone for a while if it keeps failing
+     */
+    private static void failed(ClientStats client) {
+        synchronized(client) {
+            client.failures++;
+            client.consecutiveFailures++;
+            if(client.consecutiveFailures >= FAILURE_THRESHOLD) {
+                long quarantine = Math.min(MAX_QUARANTINE_MILLIS,
+                        MIN_QUARANTINE_MILLIS << Math.min(client.consecutiveFailures - FAILURE_THRESHOLD, 10));
+                client.quarantinedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quarantine);
+            }
+        }
+    }
+
+    /**
+     * Takes the world state into a snapshot
+     * @return The snapshot
+     */
+    private WorldStateSnapshot capture(WorldStateSnapshot snapshot) {
+        WorldState worldState = agentHost.getWorldState();
+        snapshot.capture(worldState);
+        worldState.delete();
+        return snapshot;
+    }
+}
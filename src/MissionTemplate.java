@@ -0,0 +1,124 @@
+import com.microsoft.msr.malmo.MissionSpec;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A validated mission that per-map variants can be made from cheaply.
+ *
+ * The mission XML is split around the end of its DrawingDecorator once. A variant is the part before it, the
+ * extra decorator elements and the part after it, turned into a MissionSpec without validating the schema again.
+ * Only add decorator elements through decorators(), since nothing checks them anymore.
+ */
+public class MissionTemplate {
+
+    /**
+     * Matches the end of the DrawingDecorator, either a closing tag or a self-closing empty element
+     */
+    private static final Pattern DECORATOR_END = Pattern.compile("</(\\w+:)?DrawingDecorator\\s*>|<(\\w+:)?DrawingDecorator\\s*/>");
+
+    /**
+     * The content hash of the source XML this template was made from
+     */
+    private final String hash;
+
+    /**
+     * The XML up to where the variant's decorators go
+     */
+    private final String head;
+
+    /**
+     * The XML after the variant's decorators
+     */
+    private final String tail;
+
+    /**
+     * The namespace prefix of the mission elements, e.g. "ns2:", or an empty string
+     */
+    private final String prefix;
+
+    /**
+     * Creates a template out of a mission
+     * @param hash The content hash of the source XML
+     * @param mission The validated mission, with all changes applied
+     * @throws IllegalArgumentException If the mission has no DrawingDecorator
+     */
+    public MissionTemplate(String hash, MissionSpec mission) {
+        this(hash, mission.getAsXML(false));
+    }
+
+    /**
+     * Creates a template out of mission XML
+     * @param hash The content hash of the source XML
+     * @param xml The XML of a validated mission
+     * @throws IllegalArgumentException If the mission has no DrawingDecorator
+     */
+    public MissionTemplate(String hash, String xml) {
+        Matcher matcher = DECORATOR_END.matcher(xml);
+        if(!matcher.find())
+            throw new IllegalArgumentException("Mission has no DrawingDecorator to add variants to");
+
+        this.hash = hash;
+        if(xml.startsWith("</", matcher.start())) {
+            // </DrawingDecorator>
+            this.prefix = matcher.group(1) == null ? "" : matcher.group(1);
+            this.head = xml.substring(0, matcher.start());
+            this.tail = xml.substring(matcher.start());
+        } else {
+            // <DrawingDecorator/>
+            this.prefix = matcher.group(2) == null ? "" : matcher.group(2);
+            this.head = xml.substring(0, matcher.start()) + "<" + prefix + "DrawingDecorator>";
+            this.tail = "</" + prefix + "DrawingDecorator>" + xml.substring(matcher.end());
+        }
+    }
+
+    /**
+     * @return The content hash of the source XML this template was made from
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return The namespace prefix to use for decorator elements, e.g. "ns2:", or an empty string
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Starts the XML of a variant
+     * @param decoratorCapacity Roughly how many characters the variant's decorator elements take up
+     * @return A buffer with the XML up to where the variant's decorators go
+     */
+    public StringBuilder newBuffer(int decoratorCapacity) {
+        return new StringBuilder(head.length() + decoratorCapacity + tail.length()).append(head);
+    }
+
+    /**
+     * @param buffer A buffer from newBuffer()
+     * @return A writer that adds the variant's decorator elements straight into the buffer
+     */
+    public DecoratorWriter decorators(StringBuilder buffer) {
+        return new DecoratorWriter(buffer, prefix);
+    }
+
+    /**
+     * Finishes the XML of a variant
+     * @param buffer A buffer from newBuffer(), with the variant's decorators added
+     * @return The mission XML
+     */
+    public String finishXML(StringBuilder buffer) {
+        return buffer.append(tail).toString();
+    }
+
+    /**
+     * Finishes a variant and creates its mission, without validating it again
+     * @param buffer A buffer from newBuffer(), with the variant's decorators added
+     * @return The mission
+     * @throws Exception If Malmo can't parse the XML
+     */
+    public MissionSpec finish(StringBuilder buffer) throws Exception {
+        return new MissionSpec(finishXML(buffer), false);
+    }
+}
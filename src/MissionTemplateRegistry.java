@@ -0,0 +1,116 @@
+import com.microsoft.msr.malmo.MissionSpec;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Loads and validates each mission file once.
+ *
+ * Missions are keyed by the SHA-256 hash of their XML, so the same mission is only validated once even if it's
+ * loaded from different paths. Files that were loaded before aren't read again. The template of a mission is
+ * built from the validated mission with the setup it was asked for. It's kept until the mission is asked for with
+ * another setup, which is compared by identity. Pass the same instance (e.g. a lambda that captures nothing) to
+ * load the same template every time.
+ */
+public class MissionTemplateRegistry {
+
+    /**
+     * A validated mission and its template with the last setup it was loaded with
+     */
+    private static class Entry {
+        final String validatedXml;
+        Consumer<MissionSpec> setup;
+        MissionTemplate template;
+
+        Entry(String validatedXml) {
+            this.validatedXml = validatedXml;
+        }
+    }
+
+    /**
+     * The missions by the content hash of their source XML
+     */
+    private final Map<String, Entry> byHash = new HashMap<>();
+
+    /**
+     * The content hashes of the files we've read
+     */
+    private final Map<Path, String> hashByPath = new HashMap<>();
+
+    /**
+     * Returns the template of a mission file, reading and validating it the first time
+     * @param file The mission file
+     * @param setup Changes to apply to the validated mission before it becomes a template, e.g. command handlers and video
+     * @return The template
+     * @throws Exception If the file can't be read, or isn't a valid mission
+     */
+    public synchronized MissionTemplate load(Path file, Consumer<MissionSpec> setup) throws Exception {
+        Path key = file.toAbsolutePath().normalize();
+        String hash = hashByPath.get(key);
+        if(hash != null)
+            return template(hash, byHash.get(hash), setup);
+
+        String xml = new String(Files.readAllBytes(key), StandardCharsets.UTF_8);
+        MissionTemplate template = get(xml, setup);
+        hashByPath.put(key, template.getHash());
+        return template;
+    }
+
+    /**
+     * Returns the template of mission XML, validating it the first time
+     * @param xml The mission XML
+     * @param setup Changes to apply to the validated mission before it becomes a template
+     * @return The template
+     * @throws Exception If the XML isn't a valid mission
+     */
+    public synchronized MissionTemplate get(String xml, Consumer<MissionSpec> setup) throws Exception {
+        String hash = hash(xml);
+        Entry entry = byHash.get(hash);
+        if(entry == null) {
+            MissionSpec mission = new MissionSpec(xml, true);
+            entry = new Entry(mission.getAsXML(false));
+            setup.accept(mission);
+            entry.setup = setup;
+            entry.template = new MissionTemplate(hash, mission);
+            mission.delete();
+            byHash.put(hash, entry);
+        }
+        return template(hash, entry, setup);
+    }
+
+    /**
+     * @return The template of a validated mission with a setup, built again if it was last built with another one
+     */
+    private static MissionTemplate template(String hash, Entry entry, Consumer<MissionSpec> setup) throws Exception {
+        if(entry.setup != setup) {
+            MissionSpec mission = new MissionSpec(entry.validatedXml, false);
+            setup.accept(mission);
+            entry.template = new MissionTemplate(hash, mission);
+            entry.setup = setup;
+            mission.delete();
+        }
+        return entry.template;
+    }
+
+    /**
+     * @param xml Mission XML
+     * @return The SHA-256 hash of the XML, in hex
+     */
+    private static String hash(String xml) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(xml.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
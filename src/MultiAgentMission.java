@@ -0,0 +1,205 @@
+import com.microsoft.msr.malmo.AgentHost;
+import com.microsoft.msr.malmo.ClientInfo;
+import com.microsoft.msr.malmo.ClientPool;
+import com.microsoft.msr.malmo.MissionRecordSpec;
+import com.microsoft.msr.malmo.MissionSpec;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a mission with several agents, each with an AgentHost and a thread of its own.
+ *
+ * Every agent starts the mission in its role on the same pool of clients and the same experiment ID, so Malmo
+ * puts them in one world. The agents gather twice: once all of them have begun, they're let loose at the same
+ * time, and run() returns once all of them have ended. If any agent fails, the others are interrupted, told to
+ * quit and the barriers are broken, so nobody waits for an agent that will never arrive.
+ *
+ * The agents run on virtual threads when the JVM has them (Java 21 and later), and on platform threads otherwise.
+ * All waiting is done by parking (MissionRunner's polls, barriers, back-off sleeps), which doesn't tie up a
+ * carrier thread, so dozens of agents fit in one JVM. Only the calls into Malmo themselves occupy one.
+ */
+public class MultiAgentMission {
+
+    /**
+     * What an agent does once the mission has begun for everyone
+     */
+    public interface Agent {
+        /**
+         * Plays the mission. Called on the agent's own thread, at the same time for all agents.
+         * @param role The role of the agent
+         * @param agentHost The host of the agent
+         * @param worldState The world state in which the mission had begun for this agent
+         * @throws Exception To fail the whole mission
+         */
+        void run(int role, AgentHost agentHost, WorldStateSnapshot worldState) throws Exception;
+    }
+
+    /**
+     * Creates the agent threads
+     */
+    private static final ThreadFactory THREADS = threadFactory();
+
+    /**
+     * The mission
+     */
+    private final MissionSpec mission;
+
+    /**
+     * The amount of agents, one per role
+     */
+    private final int agents;
+
+    /**
+     * The clients the agents may use
+     */
+    private final ClientPool clientPool = new ClientPool();
+
+    /**
+     * How long the agents may take to end the mission once they've all begun, or 0 for no limit
+     */
+    private long endTimeoutMillis;
+
+    /**
+     * Creates a new multi-agent mission
+     * @param mission The mission, with an AgentSection for every role
+     * @param agents The amount of agents
+     * @param clients The Minecraft clients to use, as host:port. Needs at least one per agent.
+     */
+    public MultiAgentMission(MissionSpec mission, int agents, String... clients) {
+        if(agents <= 0)
+            throw new IllegalArgumentException("Need at least one agent");
+        this.mission = mission;
+        this.agents = agents;
+        for(String client : clients) {
+            String address = client.trim();
+            int colon = address.lastIndexOf(':');
+            if(colon < 0)
+                throw new IllegalArgumentException("Client address must be host:port, got " + address);
+            clientPool.add(new ClientInfo(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+        }
+    }
+
+    /**
+     * @param endTimeoutMillis How long the agents may take to end the mission once they've all begun, or 0 for no limit
+     */
+    public void setEndTimeout(long endTimeoutMillis) {
+        this.endTimeoutMillis = endTimeoutMillis;
+    }
+
+    /**
+     * Runs the mission with every agent and waits until it has ended for all of them
+     * @param agent What every agent does. Shared by all agents, so it has to be thread-safe.
+     * @param experimentId An ID unique to this run of the mission
+     * @throws ExecutionException With the first failure of any agent as the cause
+     * @throws InterruptedException If we're interrupted, after the agents have been stopped
+     */
+    public void run(Agent agent, String experimentId) throws ExecutionException, InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CyclicBarrier begun = new CyclicBarrier(agents);
+        CyclicBarrier ended = new CyclicBarrier(agents);
+        AgentHost[] hosts = new AgentHost[agents];
+        Thread[] threads = new Thread[agents];
+        for(int role=0; role<agents; role++)
+            hosts[role] = new AgentHost();
+
+        for(int role=0; role<agents; role++) {
+            int r = role;
+            threads[role] = THREADS.newThread(() -> {
+                try {
+                    play(r, hosts[r], agent, experimentId, begun, ended);
+                } catch(Throwable e) {
+                    if(failure.compareAndSet(null, e))
+                        stop(threads, hosts, begun, ended);
+                }
+            });
+        }
+        for(Thread thread : threads)
+            thread.start();
+
+        try {
+            for(Thread thread : threads)
+                thread.join();
+        } catch(InterruptedException e) {
+            stop(threads, hosts, begun, ended);
+            for(Thread thread : threads)
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            throw e;
+        }
+
+        Throwable cause = failure.get();
+        if(cause != null)
+            throw new ExecutionException("Multi-agent mission failed", cause);
+    }
+
+    /**
+     * What the thread of every agent does
+     */
+    private void play(int role, AgentHost agentHost, Agent agent, String experimentId, CyclicBarrier begun, CyclicBarrier ended) throws Exception {
+        MissionRunner runner = new MissionRunner(agentHost);
+        if(role > 0)
+            runner.setBackoff(10, 1000, 10000); // The other roles can't join before role 0 has started the server
+
+        WorldStateSnapshot worldState = runner.start(mission, clientPool, new MissionRecordSpec(), role, experimentId);
+        await(begun, "begin");
+
+        agent.run(role, agentHost, worldState);
+        runner.awaitEnd(endTimeoutMillis);
+        await(ended, "end");
+    }
+
+    /**
+     * Waits for all agents to arrive
+     */
+    private static void await(CyclicBarrier barrier, String what) throws InterruptedException, TimeoutException {
+        try {
+            barrier.await();
+        } catch(BrokenBarrierException e) {
+            throw new TimeoutException("Another agent failed before the mission could " + what);
+        }
+    }
+
+    /**
+     * Stops every agent: breaks the barriers, interrupts the threads and asks Malmo to quit the mission. Quitting
+     * only works if the mission has a quit command handler.
+     */
+    private static void stop(Thread[] threads, AgentHost[] hosts, CyclicBarrier... barriers) {
+        for(CyclicBarrier barrier : barriers)
+            barrier.reset();
+        for(Thread thread : threads)
+            if(thread != null && thread != Thread.currentThread())
+                thread.interrupt();
+        for(AgentHost host : hosts) {
+            try {
+                host.sendCommand("quit");
+            } catch(RuntimeException e) {
+                // Not running, or no quit handler
+            }
+        }
+    }
+
+    /**
+     * @return A factory for virtual threads if the JVM has them, and for daemon platform threads otherwise
+     */
+    private static ThreadFactory threadFactory() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "agent-", 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger count = new AtomicInteger();
+            return r -> {
+                Thread thread = new Thread(r, "agent-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,328 @@
+import java.util.Arrays;
+
+/**
+ * Pulls numeric fields out of an observation JSON string in a single pass, without building a JSON tree.
+ *
+ * The fields to look for are given up front and each gets a slot. decode() walks the text once, and whenever a
+ * top-level key matches one of the fields, the number after it is parsed straight into that field's slot.
+ * Nested objects, arrays and non-numeric values are skipped. Decoding doesn't allocate anything, unless a
+ * number has more digits than fit the exact fast path (a very long fraction), which falls back to
+ * Double.parseDouble.
+ *
+ * A decoder keeps the values of the last decode(), so use one decoder per thread.
+ */
+public class ObservationDecoder {
+
+    /**
+     * Exact powers of ten that a double can represent
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * The names of the fields we're looking for
+     */
+    private final String[] fields;
+
+    /**
+     * The decoded value of every field
+     */
+    private final double[] values;
+
+    /**
+     * Whether every field was found by the last decode()
+     */
+    private final boolean[] found;
+
+    /**
+     * The amount of fields found by the last decode()
+     */
+    private int foundCount;
+
+    /**
+     * Creates a new decoder
+     * @param fields The names of the numeric fields to decode, e.g. "XPos", "ZPos", "Life", "Yaw"
+     */
+    public ObservationDecoder(String... fields) {
+        this.fields = fields.clone();
+        this.values = new double[fields.length];
+        this.found = new boolean[fields.length];
+    }
+
+    /**
+     * @param field The name of a field
+     * @return The slot of the field, or -1 if this decoder doesn't look for it
+     */
+    public int indexOf(String field) {
+        for(int i=0; i<fields.length; i++)
+            if(fields[i].equals(field))
+                return i;
+        return -1;
+    }
+
+    /**
+     * @param slot The slot of a field
+     * @return The name of the field
+     */
+    public String getField(int slot) {
+        return fields[slot];
+    }
+
+    /**
+     * Decodes an observation
+     * @param text The JSON text of the observation
+     * @return True if all fields were found, false if some were missing or the text isn't a JSON object
+     */
+    public boolean decode(CharSequence text) {
+        Arrays.fill(found, false);
+        foundCount = 0;
+
+        int length = text.length();
+        int i = skipWhitespace(text, 0);
+        if(i >= length || text.charAt(i) != '{')
+            return false;
+        i++;
+
+        while(true) {
+            i = skipWhitespace(text, i);
+            if(i >= length)
+                return false;
+            char c = text.charAt(i);
+            if(c == '}')
+                break;
+            if(c == ',') {
+                i++;
+                continue;
+            }
+            if(c != '"')
+                return false;
+
+            // Key
+            int keyStart = i + 1;
+            int keyEnd = skipString(text, i);
+            if(keyEnd < 0)
+                return false;
+            int slot = matchField(text, keyStart, keyEnd - 1);
+
+            i = skipWhitespace(text, keyEnd);
+            if(i >= length || text.charAt(i) != ':')
+                return false;
+            i = skipWhitespace(text, i + 1);
+            if(i >= length)
+                return false;
+
+            // Value
+            int end;
+            c = text.charAt(i);
+            if(slot >= 0 && (c == '-' || (c >= '0' && c <= '9'))) {
+                end = parseNumber(text, i, slot);
+            } else {
+                end = skipValue(text, i);
+            }
+            if(end < 0)
+                return false;
+            i = end;
+        }
+
+        return foundCount == fields.length;
+    }
+
+    /**
+     * @param slot The slot of a field
+     * @return Whether the last decode() found the field
+     */
+    public boolean has(int slot) {
+        return found[slot];
+    }
+
+    /**
+     * @param slot The slot of a field
+     * @return The value found by the last decode(), or NaN if it wasn't found
+     */
+    public double get(int slot) {
+        return found[slot] ? values[slot] : Double.NaN;
+    }
+
+    /**
+     * @param slot The slot of a field
+     * @return The value found by the last decode() truncated to an int, the same way Gson's getAsInt() does
+     */
+    public int getInt(int slot) {
+        return (int) values[slot];
+    }
+
+    /**
+     * Finds the field whose name equals text[start, end)
+     * @return The slot of the field, or -1 if none matches
+     */
+    private int matchField(CharSequence text, int start, int end) {
+        int len = end - start;
+        for(int f=0; f<fields.length; f++) {
+            String field = fields[f];
+            if(field.length() != len || found[f])
+                continue;
+            boolean match = true;
+            for(int k=0; k<len; k++) {
+                if(field.charAt(k) != text.charAt(start + k)) {
+                    match = false;
+                    break;
+                }
+            }
+            if(match)
+                return f;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the number at text[start] into a slot
+     * @return The index right after the number, or -1 if it's malformed
+     */
+    private int parseNumber(CharSequence text, int start, int slot) {
+        int length = text.length();
+        int i = start;
+        boolean negative = false;
+        if(text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for(; i<length; i++) {
+            char c = text.charAt(i);
+            if(c < '0' || c > '9')
+                break;
+            any = true;
+            if(digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if(mantissa != 0)
+                    digits++;
+            } else {
+                exponent++;
+            }
+        }
+        if(i < length && text.charAt(i) == '.') {
+            for(i++; i<length; i++) {
+                char c = text.charAt(i);
+                if(c < '0' || c > '9')
+                    break;
+                any = true;
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if(mantissa != 0)
+                        digits++;
+                    exponent--;
+                }
+            }
+        }
+        if(!any)
+            return -1;
+        if(i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                negativeExponent = text.charAt(i) == '-';
+                i++;
+            }
+            int e = 0;
+            boolean anyExponent = false;
+            for(; i<length; i++) {
+                char c = text.charAt(i);
+                if(c < '0' || c > '9')
+                    break;
+                anyExponent = true;
+                if(e < 10000)
+                    e = e * 10 + (c - '0');
+            }
+            if(!anyExponent)
+                return -1;
+            exponent += negativeExponent ? -e : e;
+        }
+
+        double value;
+        if(digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact, so one multiplication/division rounds correctly
+            value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            if(negative)
+                value = -value;
+        } else {
+            value = Double.parseDouble(text.subSequence(start, i).toString());
+        }
+
+        values[slot] = value;
+        found[slot] = true;
+        foundCount++;
+        return i;
+    }
+
+    /**
+     * Skips any JSON value
+     * @return The index right after the value, or -1 if it's malformed
+     */
+    private static int skipValue(CharSequence text, int start) {
+        int length = text.length();
+        char c = text.charAt(start);
+        if(c == '"')
+            return skipString(text, start);
+        if(c == '{' || c == '[') {
+            int depth = 0;
+            for(int i=start; i<length; i++) {
+                c = text.charAt(i);
+                if(c == '"') {
+                    i = skipString(text, i);
+                    if(i < 0)
+                        return -1;
+                    i--;
+                } else if(c == '{' || c == '[') {
+                    depth++;
+                } else if(c == '}' || c == ']') {
+                    if(--depth == 0)
+                        return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        // Number, true, false or null
+        int i = start;
+        while(i < length) {
+            c = text.charAt(i);
+            if(c == ',' || c == '}' || c == ']' || c <= ' ')
+                break;
+            i++;
+        }
+        return i == start ? -1 : i;
+    }
+
+    /**
+     * Skips a string starting at the quote at text[start]
+     * @return The index right after the closing quote, or -1 if the string isn't closed
+     */
+    private static int skipString(CharSequence text, int start) {
+        int length = text.length();
+        for(int i=start+1; i<length; i++) {
+            char c = text.charAt(i);
+            if(c == '\\')
+                i++;
+            else if(c == '"')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the first non-whitespace character at or after start
+     */
+    private static int skipWhitespace(CharSequence text, int start) {
+        int length = text.length();
+        int i = start;
+        while(i < length && text.charAt(i) <= ' ')
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/**
+ * A model of a deterministic world, and prioritized sweeping over it.
+ *
+ * The model remembers, for every (state, action) cell of a QTable, the state it led to and the reward it gave the
+ * last time it was taken, and for every state the cells that led to it. When a real step changes what a cell
+ * should be worth, the cell goes into an IndexedMaxHeap with the size of the change as its priority. sweep() then
+ * backs up the cells with the largest changes first, and every backup queues the cells that lead to the backed up
+ * state, so a reward travels back along all known paths to it within a few real steps instead of one state per
+ * episode. The work per call is bounded by a budget of backups.
+ *
+ * The grid maps are deterministic, so a backup sets a cell to its model's reward plus the discounted value of its
+ * model's next state. If the world isn't, the model simply follows the most recent outcome. Not thread-safe.
+ */
+public class PrioritizedSweeping {
+
+    /**
+     * The next state of a cell that was never taken
+     */
+    private static final int UNKNOWN = -2;
+
+    /**
+     * The end of a predecessor list
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The amount of actions every state has
+     */
+    private final int numActions;
+
+    /**
+     * The value of the future reward
+     */
+    private final double gamma;
+
+    /**
+     * Changes smaller than this aren't queued
+     */
+    private final double threshold;
+
+    /**
+     * The state every cell led to (a QTable row, QTable.NO_ROW if the episode ended, or UNKNOWN), and its reward
+     */
+    private int[] nextStates = new int[0];
+    private double[] rewards = new double[0];
+
+    /**
+     * The predecessors of every state, as linked lists of cells: the first entry of every state, and the cell and
+     * next entry of every entry
+     */
+    private int[] firstPredecessor = new int[0];
+    private int[] predecessorCells = new int[16], nextPredecessors = new int[16];
+    private int predecessors;
+
+    /**
+     * The cells to back up, by how much they should change
+     */
+    private final IndexedMaxHeap queue = new IndexedMaxHeap();
+
+    /**
+     * Creates a new, empty model
+     * @param numActions The amount of actions every state has
+     * @param gamma The value of the future reward
+     * @param threshold Changes smaller than this aren't propagated
+     */
+    public PrioritizedSweeping(int numActions, double gamma, double threshold) {
+        this.numActions = numActions;
+        this.gamma = gamma;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Records a real transition in the model and queues the cell if its value should change
+     * @param q The Q-table
+     * @param state The row of the state the action was taken in
+     * @param action The action
+     * @param reward The reward that followed
+     * @param nextState The row of the state the action led to, or QTable.NO_ROW if the episode ended
+     */
+    public void observe(QTable q, int state, int action, double reward, int nextState) {
+        int cell = state * numActions + action;
+        ensureCells(cell + 1);
+        if(nextStates[cell] != nextState) {
+            nextStates[cell] = nextState;
+            if(nextState != QTable.NO_ROW)
+                addPredecessor(nextState, cell);
+        }
+        rewards[cell] = reward;
+        queue(q, cell);
+    }
+
+    /**
+     * Backs up the queued cells, largest change first
+     * @param q The Q-table
+     * @param budget The most backups to do
+     * @return The amount of backups done
+     */
+    public int sweep(QTable q, int budget) {
+        int done = 0;
+        while(done < budget && !queue.isEmpty()) {
+            int cell = queue.poll();
+            int state = cell / numActions;
+            q.set(state, cell % numActions, target(q, cell));
+            done++;
+
+            // The value of state may have changed, so may the values of the cells leading to it
+            if(state < firstPredecessor.length) {
+                for(int p=firstPredecessor[state]; p!=NONE; p=nextPredecessors[p]) {
+                    int predecessor = predecessorCells[p];
+                    if(nextStates[predecessor] == state) // Skip outcomes the model has forgotten
+                        queue(q, predecessor);
+                }
+            }
+        }
+        return done;
+    }
+
+    /**
+     * @return The amount of cells waiting to be backed up
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Forgets everything, e.g. when the Q-table was replaced
+     */
+    public void clear() {
+        Arrays.fill(nextStates, UNKNOWN);
+        Arrays.fill(firstPredecessor, NONE);
+        predecessors = 0;
+        queue.clear();
+    }
+
+    /**
+     * Queues a cell if its value is further than the threshold from its target
+     */
+    private void queue(QTable q, int cell) {
+        double priority = Math.abs(target(q, cell) - q.get(cell / numActions, cell % numActions));
+        if(priority >= threshold)
+            queue.offer(cell, priority);
+    }
+
+    /**
+     * @return What a known cell is worth according to the model
+     */
+    private double target(QTable q, int cell) {
+        int nextState = nextStates[cell];
+        return nextState == QTable.NO_ROW ? rewards[cell] : rewards[cell] + gamma * q.max(nextState);
+    }
+
+    /**
+     * Adds a cell to the predecessors of a state
+     */
+    private void addPredecessor(int state, int cell) {
+        if(state >= firstPredecessor.length) {
+            int oldLength = firstPredecessor.length;
+            firstPredecessor = Arrays.copyOf(firstPredecessor, Math.max(state + 1, oldLength * 2));
+            Arrays.fill(firstPredecessor, oldLength, firstPredecessor.length, NONE);
+        }
+        for(int p=firstPredecessor[state]; p!=NONE; p=nextPredecessors[p])
+            if(predecessorCells[p] == cell)
+                return;
+
+        if(predecessors == predecessorCells.length) {
+            predecessorCells = Arrays.copyOf(predecessorCells, predecessors * 2);
+            nextPredecessors = Arrays.copyOf(nextPredecessors, predecessors * 2);
+        }
+        predecessorCells[predecessors] = cell;
+        nextPredecessors[predecessors] = firstPredecessor[state];
+        firstPredecessor[state] = predecessors++;
+    }
+
+    /**
+     * Makes room for the model of more cells
+     */
+    private void ensureCells(int cells) {
+        if(cells <= nextStates.length)
+            return;
+        int oldLength = nextStates.length;
+        int newLength = Math.max(cells, oldLength * 2);
+        nextStates = Arrays.copyOf(nextStates, newLength);
+        rewards = Arrays.copyOf(rewards, newLength);
+        Arrays.fill(nextStates, oldLength, newLength, UNKNOWN);
+    }
+}
@@ -0,0 +1,283 @@
+import java.util.Arrays;
+
+/**
+ * A Q-table for discrete (x, z) grid states that only uses primitives.
+ *
+ * States are packed into a single long and looked up through an open-addressing (linear probing) hash index.
+ * Every state gets a row index the first time it's seen. All action values are stored contiguously in one
+ * double array, so the values of row r live at [r * numActions, (r + 1) * numActions).
+ * Row indexes never change once handed out, so callers can hold on to them between steps instead of looking
+ * the state up again.
+ */
+public class QTable {
+
+    /**
+     * Returned by find() when a state is not in the table
+     */
+    public static final int NO_ROW = -1;
+
+    /**
+     * The amount of actions every state has
+     */
+    private final int numActions;
+
+    /**
+     * Hash index, maps a slot to a row index (or NO_ROW when the slot is empty). Length is always a power of two.
+     */
+    private int[] slots;
+
+    /**
+     * The packed state key of every row
+     */
+    private long[] rowKeys;
+
+    /**
+     * The action values of every row, row-major
+     */
+    private double[] values;
+
+    /**
+     * The amount of rows in use
+     */
+    private int size;
+
+    /**
+     * Creates a new, empty Q-table
+     * @param numActions The amount of actions in every state
+     */
+    public QTable(int numActions) {
+        this(numActions, 64);
+    }
+
+    /**
+     * Creates a new, empty Q-table
+     * @param numActions The amount of actions in every state
+     * @param expectedStates The amount of states we expect to see, used to size the table up front
+     */
+    public QTable(int numActions, int expectedStates) {
+        if(numActions <= 0)
+            throw new IllegalArgumentException("numActions must be positive: " + numActions);
+        this.numActions = numActions;
+        int capacity = Math.max(16, expectedStates);
+        this.rowKeys = new long[capacity];
+        this.values = new double[capacity * numActions];
+        this.slots = new int[tableSizeFor(capacity * 2)];
+        Arrays.fill(slots, NO_ROW);
+    }
+
+    /**
+     * Packs a grid position into a state key
+     * @param x The X position
+     * @param z The Z position
+     * @return The packed key
+     */
+    public static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key A key created by pack()
+     * @return The X position of the key
+     */
+    public static int unpackX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @param key A key created by pack()
+     * @return The Z position of the key
+     */
+    public static int unpackZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Returns the row of a state, adding a zero-valued row if we haven't seen the state before
+     * @param x The X position
+     * @param z The Z position
+     * @return The row index of the state
+     */
+    public int row(int x, int z) {
+        return row(pack(x, z));
+    }
+
+    /**
+     * Returns the row of a state, adding a zero-valued row if we haven't seen the state before
+     * @param key The packed state key
+     * @return The row index of the state
+     */
+    public int row(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        int r;
+        while((r = slots[slot]) != NO_ROW) {
+            if(rowKeys[r] == key)
+                return r;
+            slot = (slot + 1) & mask;
+        }
+
+        // Not found - slot is the free slot for this key
+        if(size == rowKeys.length) {
+            rowKeys = Arrays.copyOf(rowKeys, size * 2);
+            values = Arrays.copyOf(values, size * 2 * numActions);
+        }
+        r = size++;
+        rowKeys[r] = key;
+        slots[slot] = r;
+        if(size * 2 > slots.length)
+            rehash(slots.length * 2);
+        return r;
+    }
+
+    /**
+     * Looks up the row of a state without adding it
+     * @param x The X position
+     * @param z The Z position
+     * @return The row index, or NO_ROW if we haven't seen the state
+     */
+    public int find(int x, int z) {
+        return find(pack(x, z));
+    }
+
+    /**
+     * Looks up the row of a state without adding it
+     * @param key The packed state key
+     * @return The row index, or NO_ROW if we haven't seen the state
+     */
+    public int find(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        int r;
+        while((r = slots[slot]) != NO_ROW) {
+            if(rowKeys[r] == key)
+                return r;
+            slot = (slot + 1) & mask;
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * @param row The row index
+     * @param action The action index
+     * @return The value of taking the action in the row's state
+     */
+    public double get(int row, int action) {
+        return values[row * numActions + action];
+    }
+
+    /**
+     * Sets the value of taking an action in a state
+     * @param row The row index
+     * @param action The action index
+     * @param value The new value
+     */
+    public void set(int row, int action, double value) {
+        values[row * numActions + action] = value;
+    }
+
+    /**
+     * @param row The row index
+     * @return The highest action value of the row
+     */
+    public double max(int row) {
+        int offset = row * numActions;
+        double val = values[offset];
+        for(int i=1; i<numActions; i++) {
+            if(values[offset + i] > val)
+                val = values[offset + i];
+        }
+        return val;
+    }
+
+    /**
+     * @param row The row index
+     * @return The packed state key of the row
+     */
+    public long key(int row) {
+        return rowKeys[row];
+    }
+
+    /**
+     * @return The amount of states in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The amount of actions every state has
+     */
+    public int getNumActions() {
+        return numActions;
+    }
+
+    /**
+     * Gives direct access to the value storage. Row r starts at r * getNumActions().
+     * The array is replaced when the table grows, so don't hold on to it across calls to row().
+     * @return The backing value array
+     */
+    public double[] values() {
+        return values;
+    }
+
+    /**
+     * Creates an independent copy of this table. Only copies the arrays, so it's cheap enough to do from the
+     * training loop (e.g. to hand a snapshot to another thread).
+     * @return The copy
+     */
+    public QTable copy() {
+        QTable copy = new QTable(numActions, rowKeys.length);
+        copy.slots = slots.clone();
+        copy.rowKeys = rowKeys.clone();
+        copy.values = Arrays.copyOf(values, values.length);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Removes all states from the table, keeping the allocated storage
+     */
+    public void clear() {
+        Arrays.fill(slots, NO_ROW);
+        Arrays.fill(values, 0, size * numActions, 0);
+        size = 0;
+    }
+
+    /**
+     * Rebuilds the hash index with a new amount of slots
+     * @param newSlots The new amount of slots, a power of two
+     */
+    private void rehash(int newSlots) {
+        int[] table = new int[newSlots];
+        Arrays.fill(table, NO_ROW);
+        int mask = newSlots - 1;
+        for(int r=0; r<size; r++) {
+            int slot = hash(rowKeys[r]) & mask;
+            while(table[slot] != NO_ROW)
+                slot = (slot + 1) & mask;
+            table[slot] = r;
+        }
+        slots = table;
+    }
+
+    /**
+     * Spreads the bits of a key so neighbouring grid positions don't end up in neighbouring slots
+     * @param key The packed key
+     * @return The hash of the key
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * @param n The minimum size
+     * @return The smallest power of two that is at least n
+     */
+    private static int tableSizeFor(int n) {
+        int size = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return Math.max(size, 16);
+    }
+}
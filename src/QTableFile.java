@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Binary file format for a QTable, read and written in one go through a heap ByteBuffer.
+ *
+ * Layout (little endian):
+ * <pre>
+ *   int    magic       'QTBL'
+ *   int    version
+ *   int    numActions
+ *   int    size        amount of states
+ *   long[] keys        size packed state keys, in row order
+ *   double[] values    size * numActions action values, row-major
+ * </pre>
+ * Rows are stored in the same order as the table hands them out, so the row indexes of a loaded table match
+ * the ones of the table that was saved.
+ */
+public class QTableFile {
+
+    /**
+     * 'QTBL'
+     */
+    public static final int MAGIC = 0x5154424C;
+
+    /**
+     * The current version of the format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes
+     */
+    public static final int HEADER_SIZE = 16;
+
+    private QTableFile() {
+    }
+
+    /**
+     * Loads a Q-table. The whole file is read into a buffer, and the value rows are bulk-copied out of it. The file
+     * isn't mapped, so it can be replaced by a checkpoint right away, even on Windows.
+     * @param path The file to load
+     * @return The loaded table
+     * @throws IOException If the file can't be read or isn't a Q-table file
+     */
+    public static QTable read(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if(length < HEADER_SIZE)
+                throw new IOException("Not a Q-table file (too short): " + path);
+            if(length > Integer.MAX_VALUE)
+                throw new IOException("Q-table file too large: " + path);
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining())
+                if(channel.read(buffer) < 0)
+                    throw new IOException("Q-table file truncated while reading: " + path);
+            buffer.flip();
+            if(buffer.getInt(0) != MAGIC)
+                throw new IOException("Not a Q-table file (bad magic): " + path);
+            int version = buffer.getInt(4);
+            if(version != VERSION)
+                throw new IOException("Unsupported Q-table file version " + version + ": " + path);
+            int numActions = buffer.getInt(8);
+            int size = buffer.getInt(12);
+            if(numActions <= 0 || size < 0 || length != fileSize(numActions, size))
+                throw new IOException("Corrupt Q-table file: " + path);
+
+            QTable table = new QTable(numActions, size);
+            buffer.position(HEADER_SIZE);
+            for(int i=0; i<size; i++) {
+                if(table.row(buffer.getLong()) != i)
+                    throw new IOException("Corrupt Q-table file (duplicate state key): " + path);
+            }
+            buffer.asDoubleBuffer().get(table.values(), 0, size * numActions);
+            return table;
+        }
+    }
+
+    /**
+     * Saves a Q-table. The file is written next to the destination first and then moved over it, so a crash
+     * never leaves a half-written model behind.
+     * @param table The table to save
+     * @param path Where to save it
+     * @throws IOException If the file can't be written
+     */
+    public static void write(QTable table, Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        if(absolute.getParent() != null)
+            Files.createDirectories(absolute.getParent());
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+
+        int numActions = table.getNumActions();
+        int size = table.size();
+        long length = fileSize(numActions, size);
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Q-table too large to save: " + size + " states");
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numActions).putInt(size);
+        for(int i=0; i<size; i++)
+            buffer.putLong(table.key(i));
+        buffer.asDoubleBuffer().put(table.values(), 0, size * numActions);
+        buffer.clear(); // The double view doesn't move our position, write the whole buffer
+
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+
+        try {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param numActions The amount of actions per state
+     * @param size The amount of states
+     * @return The size of the file in bytes
+     */
+    public static long fileSize(int numActions, int size) {
+        return HEADER_SIZE + (long) size * Long.BYTES + (long) size * numActions * Double.BYTES;
+    }
+
+    /**
+     * Writes checkpoints of a Q-table on a background thread.
+     *
+     * checkpoint() only copies the table, which takes microseconds for our grid sizes, and hands the copy to the
+     * writer thread. If a checkpoint is requested while the previous one is still being written only the newest
+     * one is kept, so a slow disk never backs up into the training loop.
+     */
+    public static class Checkpointer implements AutoCloseable {
+        /**
+         * Where to write the checkpoints
+         */
+        private final Path path;
+
+        /**
+         * The thread that writes the checkpoints
+         */
+        private final ExecutorService writer;
+
+        /**
+         * The newest snapshot that has yet to be written
+         */
+        private final AtomicReference<QTable> pending = new AtomicReference<>();
+
+        /**
+         * Creates a new checkpointer
+         * @param path Where to write the checkpoints
+         */
+        public Checkpointer(Path path) {
+            this.path = path;
+            this.writer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "q-table-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Takes a snapshot of the table and writes it in the background
+         * @param table The table to save. Must only be modified by the calling thread.
+         */
+        public void checkpoint(QTable table) {
+            checkpointSnapshot(table.copy());
+        }
+
+        /**
+         * Writes a snapshot of the table in the background, e.g. one copied under the lock of another writer
+         * @param snapshot The snapshot to save. Must not be modified afterwards.
+         */
+        public void checkpointSnapshot(QTable snapshot) {
+            if(pending.getAndSet(snapshot) == null)
+                writer.execute(this::writePending);
+        }
+
+        /**
+         * Writes the newest snapshot, if any
+         */
+        private void writePending() {
+            QTable snapshot = pending.getAndSet(null);
+            if(snapshot == null)
+                return;
+            try {
+                write(snapshot, path);
+            } catch(IOException e) {
+                System.err.println("Couldn't write Q-table checkpoint to " + path + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Writes the last pending checkpoint and stops the writer thread
+         */
+        @Override
+        public void close() {
+            writer.shutdown();
+            try {
+                if(!writer.awaitTermination(30, TimeUnit.SECONDS))
+                    System.err.println("Timed out waiting for the last Q-table checkpoint");
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
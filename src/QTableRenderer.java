@@ -0,0 +1,318 @@
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws a Q-table of the cliff walking world, one cell per state with a dot per action.
+ *
+ * Only cells that changed since the last render() are redrawn. They're drawn into an off-screen back buffer on
+ * the calling (training) thread and then copied into a front buffer. The front buffer is blitted onto the target
+ * component on the AWT event thread, and blits are coalesced, so a fast trainer never queues up more than one.
+ */
+public class QTableRenderer {
+
+    /**
+     * The size of a cell in pixels
+     */
+    public static final int SCALE = 40;
+
+    /**
+     * The size of the world in cells
+     */
+    public static final int WORLD_X = 6, WORLD_Z = 14;
+
+    /**
+     * Action values are coloured from red (MIN_VALUE) to green (MAX_VALUE)
+     */
+    private static final int MIN_VALUE = -20, MAX_VALUE = 20;
+
+    /**
+     * Where the dot of every action goes within a cell: north, south, west, east
+     */
+    private static final double ACTION_INSET = 0.1;
+    private static final double[][] ACTION_POSITIONS = new double[][] {
+            {0.5, ACTION_INSET},
+            {0.5, 1-ACTION_INSET},
+            {ACTION_INSET, 0.5},
+            {1-ACTION_INSET, 0.5}
+    };
+    private static final double ACTION_RADIUS = 0.1;
+
+    /**
+     * The radius of the dot at the current position
+     */
+    private static final double CURRENT_RADIUS = 0.2;
+
+    /**
+     * Red to green, so drawing doesn't create a Color per dot
+     */
+    private static final Color[] PALETTE = new Color[256];
+
+    static {
+        for(int i=0; i<PALETTE.length; i++)
+            PALETTE[i] = new Color(255 - i, i, 0);
+    }
+
+    /**
+     * The component to blit onto
+     */
+    private final Component target;
+
+    /**
+     * The buffer we draw into, only touched by the rendering thread
+     */
+    private final BufferedImage back;
+
+    /**
+     * The buffer we blit from, guarded by itself
+     */
+    private final BufferedImage front;
+
+    /**
+     * Graphics of the back buffer
+     */
+    private final Graphics2D backGraphics;
+
+    /**
+     * Graphics of the front buffer, guarded by front
+     */
+    private final Graphics2D frontGraphics;
+
+    /**
+     * Whether a blit is already queued on the event thread
+     */
+    private final AtomicBoolean blitQueued = new AtomicBoolean();
+
+    /**
+     * Which cells have to be redrawn, indexed by z * WORLD_X + x
+     */
+    private final boolean[] dirty = new boolean[WORLD_X * WORLD_Z];
+
+    /**
+     * The indexes of the dirty cells, in the order they were marked
+     */
+    private final int[] dirtyCells = new int[WORLD_X * WORLD_Z];
+
+    /**
+     * The amount of dirty cells
+     */
+    private int dirtyCount;
+
+    /**
+     * The table we're drawing
+     */
+    private QTable table;
+
+    /**
+     * The current position, or Integer.MIN_VALUE if none
+     */
+    private int currentX = Integer.MIN_VALUE, currentZ = Integer.MIN_VALUE;
+
+    /**
+     * Creates a new renderer. The first render() draws every cell.
+     * @param target The component to show the table on
+     * @param table The table to draw
+     */
+    public QTableRenderer(Component target, QTable table) {
+        this.target = target;
+        this.table = table;
+        this.back = new BufferedImage(WORLD_X * SCALE, WORLD_Z * SCALE, BufferedImage.TYPE_INT_RGB);
+        this.front = new BufferedImage(WORLD_X * SCALE, WORLD_Z * SCALE, BufferedImage.TYPE_INT_RGB);
+        this.backGraphics = back.createGraphics();
+        this.frontGraphics = front.createGraphics();
+        markAllDirty();
+    }
+
+    /**
+     * Switches to another table, redrawing everything
+     * @param table The new table
+     */
+    public void setQTable(QTable table) {
+        this.table = table;
+        markAllDirty();
+    }
+
+    /**
+     * Switches to a newer copy of the same table, redrawing only the states whose values differ from the current one
+     * @param table The new table
+     */
+    public void updateQTable(QTable table) {
+        QTable old = this.table;
+        this.table = table;
+        int numActions = table.getNumActions();
+        if(old.getNumActions() != numActions || old.size() > table.size()) {
+            markAllDirty(); // Not a newer copy, e.g. the agent's table was replaced
+            return;
+        }
+        double[] values = table.values(), oldValues = old.values();
+        for(int row=0; row<table.size(); row++) {
+            int oldRow = old.find(table.key(row));
+            if(oldRow == QTable.NO_ROW) {
+                markDirty(row);
+                continue;
+            }
+            for(int a=0; a<numActions; a++) {
+                if(values[row * numActions + a] != oldValues[oldRow * numActions + a]) {
+                    markDirty(row);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the cell of a Q-table row as changed
+     * @param row The row that was updated
+     */
+    public void markDirty(int row) {
+        long key = table.key(row);
+        markDirty(QTable.unpackX(key), QTable.unpackZ(key));
+    }
+
+    /**
+     * Marks a cell as changed
+     * @param x The X position of the cell
+     * @param z The Z position of the cell
+     */
+    public void markDirty(int x, int z) {
+        if(x < 0 || z < 0 || x >= WORLD_X || z >= WORLD_Z)
+            return;
+        int cell = z * WORLD_X + x;
+        if(!dirty[cell]) {
+            dirty[cell] = true;
+            dirtyCells[dirtyCount++] = cell;
+        }
+    }
+
+    /**
+     * Marks every cell as changed
+     */
+    public void markAllDirty() {
+        for(int z=0; z<WORLD_Z; z++)
+            for(int x=0; x<WORLD_X; x++)
+                markDirty(x, z);
+    }
+
+    /**
+     * Moves the current position marker
+     * @param x The X position, or Integer.MIN_VALUE to not show one
+     * @param z The Z position
+     */
+    public void setPosition(int x, int z) {
+        markDirty(currentX, currentZ);
+        currentX = x;
+        currentZ = z;
+        markDirty(x, z);
+    }
+
+    /**
+     * Redraws the changed cells and queues a blit on the event thread
+     */
+    public void render() {
+        if(dirtyCount == 0)
+            return;
+
+        for(int i=0; i<dirtyCount; i++) {
+            int cell = dirtyCells[i];
+            int x = cell % WORLD_X;
+            int z = cell / WORLD_X;
+            drawCell(backGraphics, table, x, z);
+            if(x == currentX && z == currentZ)
+                drawPosition(backGraphics, x, z);
+        }
+
+        synchronized(front) {
+            for(int i=0; i<dirtyCount; i++) {
+                int cell = dirtyCells[i];
+                int x = (cell % WORLD_X) * SCALE;
+                int z = (cell / WORLD_X) * SCALE;
+                frontGraphics.drawImage(back, x, z, x + SCALE, z + SCALE, x, z, x + SCALE, z + SCALE, null);
+                dirty[cell] = false;
+            }
+            dirtyCount = 0;
+        }
+
+        if(blitQueued.compareAndSet(false, true))
+            EventQueue.invokeLater(this::blit);
+    }
+
+    /**
+     * Copies the front buffer onto the target, on the event thread
+     */
+    private void blit() {
+        blitQueued.set(false);
+        Graphics g = target.getGraphics();
+        if(g == null)
+            return; // Not showing (yet)
+        try {
+            synchronized(front) {
+                g.drawImage(front, 0, 0, null);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Draws a whole table
+     * @param g The graphics to draw with
+     * @param table The table to draw
+     * @param currX The current X position, or Integer.MIN_VALUE to not show one
+     * @param currZ The current Z position
+     */
+    public static void drawAll(Graphics g, QTable table, int currX, int currZ) {
+        for(int x=0; x<WORLD_X; x++)
+            for(int z=0; z<WORLD_Z; z++)
+                drawCell(g, table, x, z);
+        if(currX > Integer.MIN_VALUE)
+            drawPosition(g, currX, currZ);
+    }
+
+    /**
+     * Draws one cell with a dot per action, coloured by the action's value
+     * @param g The graphics to draw with
+     * @param table The table to draw
+     * @param x The X position of the cell
+     * @param z The Z position of the cell
+     */
+    public static void drawCell(Graphics g, QTable table, int x, int z) {
+        g.setColor(Color.WHITE);
+        g.fillRect(x * SCALE, z * SCALE, SCALE, SCALE);
+        g.setColor(Color.BLACK);
+        g.fillRect(x * SCALE + 1, z * SCALE + 1, SCALE - 2, SCALE - 2);
+
+        int state = table.find(x, z);
+        if(state == QTable.NO_ROW)
+            return;
+        int actions = Math.min(table.getNumActions(), ACTION_POSITIONS.length);
+        for(int act=0; act<actions; act++) {
+            int value = (int) table.get(state, act);
+            int color = 255 * (value - MIN_VALUE) / (MAX_VALUE - MIN_VALUE);
+            g.setColor(PALETTE[Math.max(Math.min(color, 255), 0)]);
+            int x1 = (int) ((x + ACTION_POSITIONS[act][0] - ACTION_RADIUS) * SCALE);
+            int z1 = (int) ((z + ACTION_POSITIONS[act][1] - ACTION_RADIUS) * SCALE);
+            int x2 = (int) ((x + ACTION_POSITIONS[act][0] + ACTION_RADIUS) * SCALE);
+            int z2 = (int) ((z + ACTION_POSITIONS[act][1] + ACTION_RADIUS) * SCALE);
+            g.fillOval(x1, z1, x2 - x1, z2 - z1);
+        }
+    }
+
+    /**
+     * Draws the current position marker
+     * @param g The graphics to draw with
+     * @param x The X position
+     * @param z The Z position
+     */
+    public static void drawPosition(Graphics g, int x, int z) {
+        int x1 = (int) ((x + 0.5 - CURRENT_RADIUS) * SCALE);
+        int z1 = (int) ((z + 0.5 - CURRENT_RADIUS) * SCALE);
+        int x2 = (int) ((x + 0.5 + CURRENT_RADIUS) * SCALE);
+        int z2 = (int) ((z + 0.5 + CURRENT_RADIUS) * SCALE);
+        g.setColor(Color.WHITE);
+        g.fillOval(x1, z1, x2 - x1, z2 - z1);
+    }
+}
@@ -0,0 +1,115 @@
+import java.awt.Component;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shows a Q-table at a fixed frame rate, on its own thread.
+ *
+ * The trainer checks isFrameDue() every step, which is a single volatile read. When a frame is due, it copies the
+ * table under its own lock and hands the copy over with offer(). The visualizer thread compares the newest copy with
+ * the one it drew last, redraws the states that changed with a QTableRenderer and asks for the next one. Training
+ * speed doesn't depend on how fast we can draw, and the table is never read while the trainer is writing to it.
+ */
+public class QTableVisualizer implements AutoCloseable {
+
+    /**
+     * A snapshot of the table and the position it was taken at
+     */
+    private static class Frame {
+        final QTable table;
+        final int x, z;
+
+        Frame(QTable table, int x, int z) {
+            this.table = table;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    /**
+     * The component to show the table on
+     */
+    private final Component target;
+
+    /**
+     * Runs the frames
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The newest snapshot that hasn't been drawn yet
+     */
+    private final AtomicReference<Frame> latest = new AtomicReference<>();
+
+    /**
+     * Whether the trainer should offer a snapshot on its next step
+     */
+    private volatile boolean frameDue = true;
+
+    /**
+     * Draws the snapshots, only used on the visualizer thread
+     */
+    private QTableRenderer renderer;
+
+    /**
+     * Creates and starts a new visualizer
+     * @param target The component to show the table on
+     * @param framesPerSecond How many frames to draw per second
+     */
+    public QTableVisualizer(Component target, double framesPerSecond) {
+        if(framesPerSecond <= 0)
+            throw new IllegalArgumentException("framesPerSecond must be positive: " + framesPerSecond);
+        this.target = target;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "q-table-visualizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+        scheduler.scheduleAtFixedRate(this::drawFrame, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return Whether the visualizer wants a new snapshot, see offer()
+     */
+    public boolean isFrameDue() {
+        return frameDue;
+    }
+
+    /**
+     * Hands over a snapshot the caller took itself, e.g. under a lock shared with other writers of the table
+     * @param snapshot A copy of the table. Must not be modified afterwards.
+     * @param x The current X position
+     * @param z The current Z position
+     */
+    public void offer(QTable snapshot, int x, int z) {
+        frameDue = false;
+        latest.set(new Frame(snapshot, x, z));
+    }
+
+    /**
+     * Draws the newest snapshot and asks for the next one
+     */
+    private void drawFrame() {
+        Frame frame = latest.getAndSet(null);
+        if(frame != null) {
+            if(renderer == null)
+                renderer = new QTableRenderer(target, frame.table);
+            else
+                renderer.updateQTable(frame.table);
+            renderer.setPosition(frame.x, frame.z);
+            renderer.render();
+        }
+        frameDue = true;
+    }
+
+    /**
+     * Stops drawing
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
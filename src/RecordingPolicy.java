@@ -0,0 +1,271 @@
+import com.microsoft.msr.malmo.MissionRecordSpec;
+
+import java.nio.file.Path;
+
+/**
+ * Decides which episodes get recorded to disk.
+ *
+ * An episode is recorded in full (commands, rewards, observations and video) if it's one of every N episodes, or
+ * the first or last episode of a map. Optionally, every other episode is traced on a trial basis: the environment
+ * the agent runs in is wrapped, and every command with the reward and position that followed it is kept in memory.
+ * The trace is only written out if the episode's reward turns out to be an outlier, i.e. more than a given amount
+ * of standard deviations from the (exponentially weighted) running mean, so episodes that aren't never touch the
+ * disk. A trace is a text file with the start position, then one line per step: the command, whether the mission
+ * was still running, the reward and the position, separated by tabs. Old recordings are cleaned up by a SavePruner.
+ */
+public class RecordingPolicy {
+
+    /**
+     * What to record for one episode
+     */
+    public static class Recording {
+        /**
+         * The spec to start the mission with. Records nothing if the episode isn't recorded.
+         */
+        public final MissionRecordSpec spec;
+
+        /**
+         * Where the recording goes, or null if the episode isn't recorded
+         */
+        public final Path path;
+
+        /**
+         * The trace of a trial recording, only written to path if the episode turns out to be an outlier. Null if
+         * this isn't a trial.
+         */
+        private final StringBuilder trace;
+
+        Recording(MissionRecordSpec spec, Path path, boolean trial) {
+            this.spec = spec;
+            this.path = path;
+            this.trace = trial ? new StringBuilder(4096) : null;
+        }
+
+        /**
+         * Wraps the environment of the episode, so a trial recording can trace it
+         * @param environment The environment the episode runs in
+         * @return The environment to run the agent in
+         */
+        public Environment wrap(Environment environment) {
+            return trace == null ? environment : new Tracer(environment, trace);
+        }
+    }
+
+    /**
+     * Traces the episode of a trial recording into memory
+     */
+    private static class Tracer implements Environment {
+        /**
+         * The environment of the episode
+         */
+        private final Environment environment;
+
+        /**
+         * Where the trace goes
+         */
+        private final StringBuilder trace;
+
+        /**
+         * The last command sent, or "" if none was sent since the last step
+         */
+        private String command = "";
+
+        Tracer(Environment environment, StringBuilder trace) {
+            this.environment = environment;
+            this.trace = trace;
+        }
+
+        @Override
+        public boolean begin() {
+            boolean begun = environment.begin();
+            if(begun)
+                trace.append(environment.getX()).append('\t').append(environment.getZ()).append('\n');
+            return begun;
+        }
+
+        @Override
+        public void sendCommand(String command) {
+            this.command = command;
+            environment.sendCommand(command);
+        }
+
+        @Override
+        public boolean step() {
+            boolean running = environment.step();
+            trace.append(command).append('\t').append(running).append('\t').append(environment.getReward())
+                    .append('\t').append(environment.getX()).append('\t').append(environment.getZ()).append('\n');
+            command = "";
+            return running;
+        }
+
+        @Override
+        public int getX() {
+            return environment.getX();
+        }
+
+        @Override
+        public int getZ() {
+            return environment.getZ();
+        }
+
+        @Override
+        public double getReward() {
+            return environment.getReward();
+        }
+    }
+
+    /**
+     * Cleans up after us, and tells us where to record to
+     */
+    private final SavePruner pruner;
+
+    /**
+     * Used in the file names of the recordings
+     */
+    private final String experimentId;
+
+    /**
+     * Record one in every this many episodes, 0 to not sample
+     */
+    private int every = 100;
+
+    /**
+     * Whether to always record the first and last episode of a map
+     */
+    private boolean recordFirstAndLast = true;
+
+    /**
+     * How many standard deviations from the mean an outlier is, 0 to not look for outliers
+     */
+    private double outlierThreshold = 0;
+
+    /**
+     * How many episodes we need to see before we trust the mean and deviation
+     */
+    private int outlierWarmup = 20;
+
+    /**
+     * The weight of the newest reward in the running mean and variance
+     */
+    private double outlierSmoothing = 0.05;
+
+    /**
+     * The video settings of full recordings
+     */
+    private int videoFrameRate = 20;
+    private long videoBitRate = 400000;
+
+    /**
+     * The running reward statistics
+     */
+    private double mean, variance;
+    private long episodes;
+
+    /**
+     * Creates a new policy with the defaults: every 100th, first and last episode, no outliers
+     * @param pruner The pruner of the directory to record to
+     * @param experimentId Used in the file names of the recordings
+     */
+    public RecordingPolicy(SavePruner pruner, String experimentId) {
+        this.pruner = pruner;
+        this.experimentId = experimentId;
+    }
+
+    /**
+     * @param every Record one in every this many episodes, 0 to not sample
+     */
+    public void setEvery(int every) {
+        this.every = every;
+    }
+
+    /**
+     * @param recordFirstAndLast Whether to always record the first and last episode of a map
+     */
+    public void setRecordFirstAndLast(boolean recordFirstAndLast) {
+        this.recordFirstAndLast = recordFirstAndLast;
+    }
+
+    /**
+     * @param outlierThreshold How many standard deviations from the mean an outlier is, 0 to not look for outliers
+     */
+    public void setOutlierThreshold(double outlierThreshold) {
+        this.outlierThreshold = outlierThreshold;
+    }
+
+    /**
+     * @param frameRate The frame rate of recorded video
+     * @param bitRate The bit rate of recorded video
+     */
+    public void setVideo(int frameRate, long bitRate) {
+        this.videoFrameRate = frameRate;
+        this.videoBitRate = bitRate;
+    }
+
+    /**
+     * Decides what to record of an episode, call this before starting its mission
+     * @param map The map the episode is on
+     * @param repeat The episode on this map
+     * @param numRepeats The amount of episodes on this map
+     * @return What to record
+     */
+    public Recording begin(int map, int repeat, int numRepeats) {
+        boolean sampled = (every > 0 && repeat % every == 0)
+                || (recordFirstAndLast && (repeat == 0 || repeat == numRepeats - 1));
+        boolean trial = !sampled && outlierThreshold > 0 && episodes >= outlierWarmup;
+        if(!sampled && !trial)
+            return new Recording(new MissionRecordSpec(), null, false);
+
+        String name = String.format("save_%s-map%d-rep%d", experimentId, map, repeat);
+        if(trial)
+            return new Recording(new MissionRecordSpec(), pruner.getDirectory().resolve(name + ".txt"), true);
+
+        Path path = pruner.getDirectory().resolve(name + ".tgz");
+        MissionRecordSpec spec = new MissionRecordSpec(path.toString());
+        spec.recordCommands();
+        spec.recordRewards();
+        spec.recordObservations();
+        spec.recordMP4(videoFrameRate, videoBitRate);
+        if(recordFirstAndLast && (repeat == 0 || repeat == numRepeats - 1))
+            pruner.pin(path);
+        return new Recording(spec, path, false);
+    }
+
+    /**
+     * Tells the policy how an episode went, call this after its mission ended
+     * @param recording What begin() returned for the episode
+     * @param reward The total reward of the episode
+     */
+    public void end(Recording recording, double reward) {
+        boolean outlier = isOutlier(reward);
+        update(reward);
+
+        if(recording.trace != null && outlier)
+            pruner.save(recording.path, recording.trace.toString());
+    }
+
+    /**
+     * @param reward A reward
+     * @return Whether the reward is an outlier given the episodes so far
+     */
+    private boolean isOutlier(double reward) {
+        if(outlierThreshold <= 0 || episodes < outlierWarmup)
+            return false;
+        return Math.abs(reward - mean) > outlierThreshold * Math.sqrt(variance);
+    }
+
+    /**
+     * Adds a reward to the running mean and variance
+     * @param reward The reward
+     */
+    private void update(double reward) {
+        if(episodes++ == 0) {
+            mean = reward;
+            variance = 0;
+            return;
+        }
+        double diff = reward - mean;
+        double increment = outlierSmoothing * diff;
+        mean += increment;
+        variance = (1 - outlierSmoothing) * (variance + diff * increment);
+    }
+}
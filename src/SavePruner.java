@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a directory of mission recordings within a disk budget, on a background thread.
+ *
+ * Every now and then the directory is scanned, and while the recordings take up more than the budget the oldest
+ * ones are deleted. Pinned recordings (e.g. the first and last episode of a map) are only deleted once nothing
+ * else is left. Recordings we make ourselves rather than Malmo are written on the same thread, so the agent
+ * doesn't wait for the disk.
+ */
+public class SavePruner implements AutoCloseable {
+
+    /**
+     * The directory with the recordings
+     */
+    private final Path directory;
+
+    /**
+     * The most bytes the recordings may take up
+     */
+    private final long budgetBytes;
+
+    /**
+     * Recordings that should be kept as long as possible
+     */
+    private final Set<Path> pinned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Runs the scans and deletions
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Creates and starts a new pruner
+     * @param directory The directory with the recordings
+     * @param budgetBytes The most bytes the recordings may take up
+     * @param scanIntervalSeconds How often to check the budget
+     */
+    public SavePruner(Path directory, long budgetBytes, long scanIntervalSeconds) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "save-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.scheduleWithFixedDelay(this::enforceBudget, scanIntervalSeconds, scanIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return The directory with the recordings
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Keeps a recording for as long as the budget allows
+     * @param recording The recording
+     */
+    public void pin(Path recording) {
+        pinned.add(recording.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Writes a recording in the background and pins it
+     * @param recording Where to write it
+     * @param content What to write
+     */
+    public void save(Path recording, String content) {
+        pin(recording);
+        executor.execute(() -> {
+            try {
+                Files.createDirectories(directory);
+                Files.writeString(recording, content);
+            } catch(IOException e) {
+                System.err.println("Couldn't write recording " + recording + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Deletes the oldest recordings until we're within the budget
+     */
+    private void enforceBudget() {
+        if(!Files.isDirectory(directory))
+            return;
+
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        try(Stream<Path> list = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) list::iterator) {
+                String name = file.getFileName().toString();
+                if(!name.endsWith(".tgz") && !name.endsWith(".txt"))
+                    continue;
+                try {
+                    BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                    if(!attr.isRegularFile())
+                        continue;
+                    files.add(file);
+                    attributes.add(attr);
+                    total += attr.size();
+                } catch(NoSuchFileException e) {
+                    // Deleted in the meantime
+                }
+            }
+        } catch(IOException e) {
+            System.err.println("Couldn't scan recordings in " + directory + ": " + e.getMessage());
+            return;
+        }
+        if(total <= budgetBytes)
+            return;
+
+        // Oldest first, unpinned before pinned
+        Integer[] order = new Integer[files.size()];
+        for(int i=0; i<order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator
+                .comparing((Integer i) -> pinned.contains(files.get(i).toAbsolutePath().normalize()))
+                .thenComparing(i -> attributes.get(i).lastModifiedTime()));
+
+        for(int i=0; i<order.length && total > budgetBytes; i++) {
+            Path file = files.get(order[i]);
+            try {
+                Files.deleteIfExists(file);
+                total -= attributes.get(order[i]).size();
+                pinned.remove(file.toAbsolutePath().normalize());
+            } catch(IOException e) {
+                System.err.println("Couldn't delete recording " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the recordings still queued, does a last budget check and stops the background thread
+     */
+    @Override
+    public void close() {
+        executor.execute(this::enforceBudget);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,5 +1,3 @@
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.microsoft.msr.malmo.*;
 
 import javax.swing.*;
@@ -7,11 +5,14 @@ import java.awt.*;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * A "Cliff-walking" example using tabular Q learning
@@ -62,14 +63,19 @@ public class TabularQLearning {
         private boolean debug;
 
         /**
-         * The canvas we should debug on
+         * Draws the Q-table on the debug canvas, or null if we're not drawing
          */
-        private Canvas canvas;
+        private QTableRenderer renderer;
+
+        /**
+         * Samples the Q-table for a visualizer thread, or null if there is none
+         */
+        private QTableVisualizer visualizer;
 
         /**
          * The data we have gathered so far
          */
-        private HashMap<String, double[]> qTable = new HashMap<>();
+        private QTable qTable;
 
         /**
          * The action we previously took
@@ -77,9 +83,59 @@ public class TabularQLearning {
         private int previousAction = 1;
 
         /**
-         * The state we previousely had
+         * The Q-table row of the state we previousely had, or QTable.NO_ROW if we haven't had one yet
+         */
+        private int previousState = QTable.NO_ROW;
+
+        /**
+         * The eligibility traces of Q(lambda), or null for one-step Q-learning
+         */
+        private EligibilityTraces traces;
+
+        /**
+         * The trace decay of Q(lambda)
+         */
+        private double lambda;
+
+        /**
+         * Whether to use Peng's Q(lambda) instead of Watkins's
+         */
+        private boolean peng;
+
+        /**
+         * Picks the exploratory actions and breaks ties
+         */
+        private SplittableRandom random = new SplittableRandom();
+
+        /**
+         * Picks the transitions to replay, only used under the lock
+         */
+        private SplittableRandom planningRandom = random.split();
+
+        /**
+         * Guards the Q-table and the replay buffer against the planner
+         */
+        private final Object lock = new Object();
+
+        /**
+         * The transitions we've seen, for planning, or null if we're not planning
+         */
+        private ExperienceReplay replay;
+
+        /**
+         * The model to plan with by prioritized sweeping, or null to plan by replaying transitions
+         */
+        private PrioritizedSweeping sweeping;
+
+        /**
+         * How many planning updates to do after every real step
+         */
+        private int planningSteps;
+
+        /**
+         * Does the planning updates in the background, or null to do them inline
          */
-        private String previousState = null;
+        private DynaPlanner planner;
 
         /**
          * Creates a new tabular-q agent
@@ -88,7 +144,7 @@ public class TabularQLearning {
          * @param alpha The learning rate as described in Barto and Sutton's introduction to RL
          * @param gamma The value of the future reward
          * @param debug Whether or not to debug. True = debug, False = no debug
-         * @param canvas The canvas to draw on.
+         * @param canvas The canvas to draw on, or null to not draw at all.
          */
         public TabularQAgent(String[] actions, double epsilon, double alpha, double gamma, boolean debug, Canvas canvas) {
             this.actions = actions;
@@ -96,92 +152,65 @@ public class TabularQLearning {
             this.alpha = alpha;
             this.gamma = gamma;
             this.debug = debug;
-            this.canvas = canvas;
+            this.qTable = new QTable(actions.length);
+            if(canvas != null)
+                this.renderer = new QTableRenderer(canvas, qTable);
         }
 
         /**
-         * Runs the agent through one attempt
+         * Runs the agent through one attempt, polling the host with a pump of its own
          * @param agentHost The host of the mission
          * @return The amount of rewards we've collected in this run
          */
         public double run(AgentHost agentHost) {
+            try(WorldStatePump pump = new WorldStatePump(agentHost)) {
+                return run(new MalmoEnvironment(agentHost, pump));
+            }
+        }
+
+        /**
+         * Runs the agent through one attempt
+         * @param environment The environment to act in, e.g. a MalmoEnvironment or a CliffWalkSimulator
+         * @return The amount of rewards we've collected in this run
+         */
+        public double run(Environment environment) {
             double totalReward = 0;
             double currentReward = 0;
 
-            this.previousState = null;
-
-            WorldState worldState = agentHost.peekWorldState();
-            while(worldState.getIsMissionRunning() && !hasObservations(worldState))
-                worldState = agentHost.peekWorldState();
-
-            int framesSeen = worldState.getNumberOfVideoFramesSinceLastState();
-            while(worldState.getIsMissionRunning() && worldState.getNumberOfVideoFramesSinceLastState() == framesSeen)
-                worldState = agentHost.peekWorldState();
-
-            worldState = agentHost.getWorldState();
-            for(int i=0; i<worldState.getErrors().size(); i++)
-                System.err.println(worldState.getErrors().get(i));
+            this.previousState = QTable.NO_ROW;
+            if(traces != null)
+                traces.clear();
 
-            if(!worldState.getIsMissionRunning())
+            if(!environment.begin())
                 return 0; // Quit if mission ended before it should
 
-            if(worldState.getVideoFrames().size() <= 0) {
-                System.err.println("We haven't received any video frames!");
-                return 0;
-            }
-
-            JsonObject observation = (JsonObject) new JsonParser().parse(worldState.getObservations().get(0).getText());
-            if(!observation.has("XPos") || !observation.has("ZPos")) {
-                System.err.println("Received invalid observations - no 'XPos' or 'ZPos' found");
-                return 0;
-            }
-            int previousX = observation.get("XPos").getAsInt();
-            int previousZ = observation.get("ZPos").getAsInt();
-            System.out.format("Initial position: %d, %d\n", previousX, previousZ);
-
-            totalReward += act(worldState, agentHost, currentReward);
-
-            while(worldState.getIsMissionRunning()) {
-                System.out.println("Waiting for data...");
-                while(true) {
-                    worldState = agentHost.peekWorldState();
-                    if(!worldState.getIsMissionRunning()) {
-                        System.out.println("Mission ended");
-                        break;
-                    }
-                    if(worldState.getRewards().size() > 0 && hasObservations(worldState)) {
-                        break;
-                    }
-                }
-
-                framesSeen = worldState.getNumberOfVideoFramesSinceLastState();
-                while(worldState.getIsMissionRunning() && worldState.getNumberOfVideoFramesSinceLastState() == framesSeen)
-                    worldState = agentHost.peekWorldState();
+            int previousX = environment.getX();
+            int previousZ = environment.getZ();
+            if(debug)
+                System.out.format("Initial position: %d, %d\n", previousX, previousZ);
 
-                worldState = agentHost.getWorldState();
-                for(int i=0; i<worldState.getErrors().size(); i++)
-                    System.err.println(worldState.getErrors().get(i));
+            totalReward += act(previousX, previousZ, environment, currentReward);
 
-                currentReward = 0;
-                for(int i=0; i<worldState.getRewards().size(); i++)
-                    currentReward += worldState.getRewards().get(i).getValue();
+            while(true) {
+                if(debug)
+                    System.out.println("Waiting for data...");
+                boolean running = environment.step();
+                currentReward = environment.getReward();
+                if(!running)
+                    break;
 
-                if(worldState.getIsMissionRunning()) {
-                    observation = (JsonObject) new JsonParser().parse(worldState.getObservations().get(0).getText());
-                    int currentX = observation.get("XPos").getAsInt();
-                    int currentZ = observation.get("ZPos").getAsInt();
+                int currentX = environment.getX();
+                int currentZ = environment.getZ();
+                if(debug)
                     System.out.format("New position from observation %d, %d after action '%s'\n", currentX, currentZ, previousAction);
 
-                    totalReward += act(worldState, agentHost, currentReward);
-                }
+                totalReward += act(currentX, currentZ, environment, currentReward);
             }
 
             totalReward += currentReward;
 
-            if(training && previousState != null) {
-                double oldQ = qTable.get(previousState)[previousAction];
-                qTable.get(previousState)[previousAction] = oldQ + alpha * (currentReward - oldQ);
-            }
+            if(training && previousState != QTable.NO_ROW)
+                learn(previousState, previousAction, currentReward, QTable.NO_ROW);
 
             drawQ(0, 0);
 
@@ -189,133 +218,327 @@ public class TabularQLearning {
         }
 
         /**
-         * Acts based on the current world state
-         * @param worldState The current world state
-         * @param agentHost The agent host
+         * Acts based on the current position
+         * @param currentX The current X position, as decoded from the observations
+         * @param currentZ The current Z position, as decoded from the observations
+         * @param environment The environment to send the command to
          * @param currentReward The reward we've collected so far
          */
-        public double act(WorldState worldState, AgentHost agentHost, double currentReward) {
-            JsonObject observation = (JsonObject) new JsonParser().parse(worldState.getObservations().get(0).getText());
-            if(!observation.has("XPos") || !observation.has("ZPos")) {
-                System.err.println("Received invalid observations - no 'XPos' or 'ZPos' found");
-                return 0;
+        public double act(int currentX, int currentZ, Environment environment, double currentReward) {
+            int currentState;
+            synchronized(lock) {
+                currentState = qTable.row(currentX, currentZ);
             }
-
-            int currentX = observation.get("XPos").getAsInt();
-            int currentZ = observation.get("ZPos").getAsInt();
-            String currentState = String.format("%d:%d", currentX, currentZ);
             if(debug)
-                System.out.format("Debug > State: %s (x=%d, z=%d)\n", currentState, currentX, currentZ);
-
-            if(!qTable.containsKey(currentState))
-                qTable.put(currentState, new double[actions.length]);
+                System.out.format("Debug > State: %d:%d (x=%d, z=%d)\n", currentX, currentZ, currentX, currentZ);
 
             // TD(0) algorithm as stated in Barto and Sutton's introduction to Reinforcement Learning 2016 version 2 draft
-            if(training && previousState != null) {
-                double oldQ = qTable.get(previousState)[previousAction];
-                qTable.get(previousState)[previousAction] = oldQ + alpha * (currentReward
-                        + gamma * getHighest(qTable.get(currentState)) - oldQ);
-            }
+            if(training && previousState != QTable.NO_ROW)
+                learn(previousState, previousAction, currentReward, currentState);
 
             drawQ(currentX, currentZ);
 
             int a;
-            double random = Math.random();
-            if(random < epsilon) {
-                a = ThreadLocalRandom.current().nextInt(0, actions.length);
-                System.out.println("Taking random action: "+actions[a]);
+            if(random.nextDouble() < epsilon) {
+                a = random.nextInt(actions.length);
+                if(debug)
+                    System.out.println("Taking random action: "+actions[a]);
             } else {
-                double max = getHighest(qTable.get(currentState));
-                List<Integer> list = new ArrayList<>();
-                for(int x=0; x<actions.length; x++) {
-                    if (qTable.get(currentState)[x] == max)
-                        list.add(x);
+                a = greedyAction(currentState);
+                if(debug)
+                    System.out.println("Taking q action: "+actions[a]);
+            }
+
+            // Watkins's Q(lambda) only follows the greedy policy back, so an exploratory action cuts the traces
+            if(training && traces != null) {
+                synchronized(lock) {
+                    if(!peng && qTable.get(currentState, a) != qTable.max(currentState))
+                        traces.clear();
+                    else
+                        traces.decay(gamma * lambda);
                 }
-                a = list.get(ThreadLocalRandom.current().nextInt(0, list.size()));
-                System.out.println("Taking q action: "+actions[a]);
             }
 
             // Send the command
-            agentHost.sendCommand(actions[a]);
+            environment.sendCommand(actions[a]);
             previousState = currentState;
             previousAction = a;
 
+            // Plan while the command is being carried out
+            if(training && planningSteps > 0) {
+                if(planner != null)
+                    planner.request(planningSteps);
+                else
+                    plan(planningSteps);
+            }
+
             return currentReward;
         }
 
         /**
-         * Draws the current path
-         * @param currX The current X position
-         * @param currY The current Y position
+         * Picks one of the actions with the highest value in a state, uniformly at random if there are several. Reads
+         * the row straight from the Q-table and draws once, like picking from a list of the best actions would, so
+         * it doesn't allocate and recordings of earlier versions replay the same. Both passes over the row are made
+         * under the lock, so the background planner can't change it in between.
+         * @param state The row of the state
+         * @return The action
          */
-        private void drawQ(int currX, int currY) {
-            boolean drawCurrentPos = currX>Integer.MIN_VALUE;
-            int scale = 40;
-            int worldX = 6;
-            int worldY = 14;
-
-            double actionInset = 0.1;
-            double actionRadius = 0.1;
-            double currRadius = 0.2;
-            double[][] actionPositions = new double[][] {
-                    {0.5, actionInset},
-                    {0.5, 1-actionInset},
-                    {actionInset, 0.5},
-                    {1-actionInset, 0.5}
-            };
-
-            int minValue = -20;
-            int maxValue = 20;
-
-            Graphics g = canvas.getGraphics();
-            for(int x=0; x<worldX; x++) {
-                for (int y = 0; y < worldY; y++) {
-                    g.setColor(Color.WHITE);
-                    g.fillRect(x * scale, y * scale, (x + 1) * scale, (y + 1) * scale);
-                    g.setColor(Color.BLACK);
-                    g.fillRect((x * scale) + 1, (y * scale + 1), ((x + 1) * scale) - 1, ((y + 1) * scale) - 1);
-                    String state = String.format("%d:%d", x, y);
-                    if(qTable.containsKey(state)) {
-                        double[] data = qTable.get(state);
-                        for(int act=0; act<actions.length; act++) {
-                            int value = (int) data[act];
-                            double color = 255 * (value-minValue) / (maxValue-minValue);
-                            color = Math.max(Math.min(color, 255), 0);
-                            Color col = new Color(255 - (int) color, (int) color, 0);
-                            g.setColor(col);
-                            g.fillOval((int) ((x + actionPositions[act][0] - actionRadius) * scale),
-                                    (int) ((y + actionPositions[act][1] - actionRadius) * scale),
-                                    (int) ((x + actionPositions[act][0] + actionRadius) * scale) - (int) ((x + actionPositions[act][0] - actionRadius) * scale),
-                                    (int) ((y + actionPositions[act][1] + actionRadius) * scale) - (int) ((y + actionPositions[act][1] - actionRadius) * scale));
-
-                        }
+        private int greedyAction(int state) {
+            int numActions = actions.length;
+            int base = state * numActions;
+            synchronized(lock) {
+                double[] values = qTable.values();
+                double max = values[base];
+                int ties = 1;
+                for(int x=1; x<numActions; x++) {
+                    double value = values[base + x];
+                    if(value > max) {
+                        max = value;
+                        ties = 1;
+                    } else if(value == max) {
+                        ties++;
                     }
                 }
+
+                int pick = random.nextInt(ties);
+                for(int x=0; x<numActions; x++)
+                    if(values[base + x] == max && pick-- == 0)
+                        return x;
             }
+            throw new IllegalStateException("No best action in state " + state); // Can't happen, the row can't change under the lock
+        }
 
-            g.setColor(Color.WHITE);
-            if(drawCurrentPos) {
-                g.fillOval((int) ((currX + 0.5 - currRadius) * scale),
-                        (int) ((currY + 0.5 - currRadius) * scale),
-                        (int) (((currY + 0.5 + currRadius) * scale) - ((currY + 0.5 - currRadius) * scale)),
-                        (int) (((currX + 0.5 + currRadius) * scale) - ((currX + 0.5 - currRadius) * scale)));
+        /**
+         * Reseeds the agent's random, so the same seed, Q-table and observations give the same actions. Planning on
+         * the background thread still depends on timing.
+         * @param seed The seed
+         */
+        public void setSeed(long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            synchronized(lock) {
+                this.planningRandom = random.split();
             }
+            this.random = random;
+        }
+
+        /**
+         * Does a TD(0) or Q(lambda) update for a real transition, and keeps it for planning
+         * @param state The row of the state the action was taken in
+         * @param action The action
+         * @param reward The reward that followed
+         * @param nextState The row of the state the action led to, or QTable.NO_ROW if the mission ended
+         */
+        private void learn(int state, int action, double reward, int nextState) {
+            synchronized(lock) {
+                if(traces == null)
+                    update(state, action, reward, nextState);
+                else
+                    updateTraces(state, action, reward, nextState);
+                if(replay != null)
+                    replay.add(state, action, reward, nextState);
+                if(sweeping != null)
+                    sweeping.observe(qTable, state, action, reward, nextState);
+            }
+            if(renderer != null) {
+                if(traces == null)
+                    renderer.markDirty(state);
+                else
+                    renderer.markAllDirty();
+            }
+        }
+
+        /**
+         * Q(lambda) update, with replacing traces: taking an action sets its trace to 1 and clears the traces of the
+         * other actions in the state. Watkins's Q(lambda) spreads the TD error of the action over all traced actions.
+         * Peng's Q(lambda) spreads the error of the state value over the traced actions instead, and adds the TD
+         * error of the action to the action itself.
+         */
+        private void updateTraces(int state, int action, double reward, int nextState) {
+            double target = nextState == QTable.NO_ROW ? reward : reward + gamma * qTable.max(nextState);
+            int cell = state * actions.length + action;
+            for(int other=0; other<actions.length; other++)
+                if(other != action)
+                    traces.remove(state * actions.length + other); // Only the last action taken in a state is traced
+            if(peng) {
+                double oldQ = qTable.get(state, action);
+                traces.apply(qTable.values(), alpha * (target - qTable.max(state)));
+                qTable.set(state, action, qTable.get(state, action) + alpha * (target - oldQ));
+                traces.set(cell, 1);
+            } else {
+                double delta = target - qTable.get(state, action);
+                traces.set(cell, 1);
+                traces.apply(qTable.values(), alpha * delta);
+            }
+            if(nextState == QTable.NO_ROW)
+                traces.clear();
+        }
+
+        /**
+         * Turns on Q(lambda): a reward is passed back along the whole trajectory that led to it, instead of one state
+         * per episode. That helps most when rewards are rare. With lava all around, a high lambda also passes every
+         * fall back along the path, which makes the path look as bad as the untried actions next to it.
+         * @param lambda The trace decay, between 0 and 1, or 0 for one-step Q-learning
+         * @param peng Whether to use Peng's Q(lambda), which keeps the traces after exploratory actions, instead of Watkins's
+         */
+        public void setLambda(double lambda, boolean peng) {
+            if(lambda < 0 || lambda > 1)
+                throw new IllegalArgumentException("lambda must be between 0 and 1: " + lambda);
+            synchronized(lock) {
+                this.lambda = lambda;
+                this.peng = peng;
+                this.traces = lambda > 0 ? new EligibilityTraces() : null;
+            }
+        }
+
+        /**
+         * Moves the value of an action towards the reward plus the discounted value of the next state
+         */
+        private void update(int state, int action, double reward, int nextState) {
+            double target = nextState == QTable.NO_ROW ? reward : reward + gamma * qTable.max(nextState);
+            double oldQ = qTable.get(state, action);
+            qTable.set(state, action, oldQ + alpha * (target - oldQ));
+        }
+
+        /**
+         * Dyna-Q planning: replays transitions picked at random from the ones we've seen into the Q-table, or backs
+         * up the cells of the model that changed most if we're sweeping
+         * @param updates How many transitions to replay or cells to back up
+         */
+        public void plan(int updates) {
+            synchronized(lock) {
+                if(sweeping != null) {
+                    sweeping.sweep(qTable, updates);
+                    return;
+                }
+                if(replay == null || replay.size() == 0)
+                    return;
+                for(int i=0; i<updates; i++) {
+                    int t = planningRandom.nextInt(replay.size());
+                    update(replay.getState(t), replay.getAction(t), replay.getReward(t), replay.getNextState(t));
+                }
+            }
+        }
+
+        /**
+         * Turns on Dyna-Q planning: every real step is kept in an off-heap replay buffer, and after every real step
+         * that many transitions from the buffer are replayed into the Q-table, to learn more from every real step
+         * @param planningSteps How many planning updates to do after every real step, or 0 to stop planning
+         * @param replayCapacity How many transitions to keep
+         * @param background Whether to plan on a thread of its own while we wait for the next step, or inline
+         */
+        public void setPlanning(int planningSteps, int replayCapacity, boolean background) {
+            stopPlanning();
+            if(planningSteps <= 0)
+                return;
+            synchronized(lock) {
+                this.replay = new ExperienceReplay(replayCapacity);
+            }
+            this.planningSteps = planningSteps;
+            if(background)
+                this.planner = new DynaPlanner(this::plan);
+        }
+
+        /**
+         * Plans with prioritized sweeping instead of random replay: every real step is recorded in a model of the map,
+         * and the planning updates back up the cells whose value should change most, then the cells leading to them.
+         * Only takes effect while planning, see setPlanning().
+         * @param threshold Changes smaller than this aren't propagated, or a negative threshold to stop sweeping
+         */
+        public void setSweeping(double threshold) {
+            synchronized(lock) {
+                this.sweeping = threshold >= 0 ? new PrioritizedSweeping(actions.length, gamma, threshold) : null;
+            }
+        }
+
+        /**
+         * Stops planning, and the planning thread if there is one
+         */
+        public void stopPlanning() {
+            planningSteps = 0;
+            if(planner != null) {
+                planner.close();
+                planner = null;
+            }
+            synchronized(lock) {
+                replay = null;
+            }
+        }
+
+        /**
+         * Draws the cells that changed since the last call, and the current position
+         * @param currX The current X position
+         * @param currY The current Y position
+         */
+        private void drawQ(int currX, int currY) {
+            if(visualizer == null && renderer == null)
+                return; // Nothing to draw on
+            long start = System.nanoTime();
+            if(renderer != null && planningSteps > 0)
+                renderer.markAllDirty(); // The planner may have changed any cell
+            if(visualizer != null && visualizer.isFrameDue())
+                visualizer.offer(copyQTable(), currX, currY);
+            if(renderer != null) {
+                renderer.setPosition(currX, currY);
+                renderer.render();
+            }
+            Metrics.DRAW_Q.recordSince(start);
+        }
+
+        /**
+         * Draws the whole Q-table and the current position
+         * @param g The graphics to draw with, e.g. of the canvas or an off-screen image
+         * @param currX The current X position
+         * @param currY The current Y position
+         */
+        public void drawQ(Graphics g, int currX, int currY) {
+            QTableRenderer.drawAll(g, qTable, currX, currY);
         }
 
         /* Utility functions */
         /**
-         * Checks if the world state has observations
-         * @param state The current WorldState
-         * @return True if there's observations, false if not
-         */
-        protected boolean hasObservations(WorldState state) {
-            if(state.getObservations().size() == 0)
-                return false;
-            boolean has = true;
-            for(int i=0; i<state.getObservations().size(); i++)
-                if(state.getObservations().get(i).getText().equalsIgnoreCase("{}"))
-                    has = false;
-            return has;
+         * @return The Q-table this agent is learning
+         */
+        public QTable getQTable() {
+            return qTable;
+        }
+
+        /**
+         * Copies the Q-table without racing the background planner, e.g. to save or draw it on another thread
+         * @return The copy
+         */
+        public QTable copyQTable() {
+            synchronized(lock) {
+                return qTable.copy();
+            }
+        }
+
+        /**
+         * Lets a visualizer sample the Q-table every step, instead of (or as well as) drawing it inline
+         * @param visualizer The visualizer, or null to stop sampling
+         */
+        public void setVisualizer(QTableVisualizer visualizer) {
+            this.visualizer = visualizer;
+        }
+
+        /**
+         * Replaces the Q-table, e.g. with one loaded from a model file
+         * @param qTable The new Q-table. Must have as many actions as this agent.
+         */
+        public void setQTable(QTable qTable) {
+            if(qTable.getNumActions() != actions.length)
+                throw new IllegalArgumentException("Q-table has " + qTable.getNumActions() + " actions, agent has " + actions.length);
+            synchronized(lock) {
+                this.qTable = qTable;
+                if(replay != null)
+                    replay.clear(); // Its rows are those of the old table
+                if(traces != null)
+                    traces.clear();
+                if(sweeping != null)
+                    sweeping.clear();
+            }
+            this.previousState = QTable.NO_ROW;
+            if(renderer != null)
+                renderer.setQTable(qTable);
         }
 
         /**
@@ -345,54 +568,184 @@ public class TabularQLearning {
         agentHost.addOptionalFlag("load_model", "Load initial model from model_file.");
         agentHost.addOptionalStringArgument("model_file", "Path to the initial model file", "");
         agentHost.addOptionalFlag("debug", "Turn on debugging.");
+        agentHost.addOptionalFlag("headless", "Train without showing the Q-table.");
+        agentHost.addOptionalFloatArgument("fps", "Frame rate of the Q-table view.", 10);
+        agentHost.addOptionalIntArgument("record_every", "Record one in every this many episodes (0 = none).", 100);
+        agentHost.addOptionalFloatArgument("record_outliers", "Also keep episodes whose reward is this many standard deviations from the mean (0 = off).", 0);
+        agentHost.addOptionalIntArgument("record_budget_mb", "Most disk space the recordings in ./malmosaves may use.", 10240);
+        agentHost.addOptionalStringArgument("metrics_dir", "Directory to dump metrics.csv and metrics.json to (empty = don't dump). The metrics are also available over JMX.", "");
+        agentHost.addOptionalIntArgument("metrics_interval", "Seconds between two metrics dumps.", 60);
+        agentHost.addOptionalFloatArgument("lambda", "Trace decay of Q(lambda) (0 = one-step Q-learning).", 0);
+        agentHost.addOptionalFlag("peng", "Use Peng's Q(lambda) instead of Watkins's.");
+        agentHost.addOptionalIntArgument("planning_steps", "Dyna-Q planning updates after every real step, replayed from past steps in the background (0 = off).", 0);
+        agentHost.addOptionalFlag("prioritized_sweeping", "Plan by prioritized sweeping over a model of the map instead of replaying past steps (planning_steps defaults to 100).");
+        agentHost.addOptionalFloatArgument("sweeping_threshold", "Smallest change in value prioritized sweeping propagates.", 0.01);
+        agentHost.addOptionalIntArgument("replay_capacity", "How many past steps to keep for planning.", 100000);
+        agentHost.addOptionalIntArgument("seed", "Seed of the maps and the agents, to repeat a run (0 = pick one).", 0);
+        agentHost.addOptionalStringArgument("record_episodes", "File to record every episode to, for EpisodeReplay (empty = don't record).", "");
+        agentHost.addOptionalStringArgument("clients", "Comma-separated host:port of the Minecraft clients to use. With two or more, the next episode starts while the current one runs.", "127.0.0.1:10000");
 
         try {
             StringVector args = new StringVector();
             args.add("Tutorial6");
             for (String arg : argv)
                 args.add(arg);
+            agentHost.parse(args);
         } catch (Exception e) {
-            System.err.format("ERROR: %s", e.getMessage());
+            System.err.format("ERROR: %s\n", e.getMessage());
             System.err.println(agentHost.getUsage());
+            System.exit(1);
         }
         if (agentHost.receivedArgument("help")) {
             System.out.println(agentHost.getUsage());
             System.exit(0);
         }
 
-        // Create debug frame
-        JFrame frame = new JFrame("Q-table");
-        Canvas canvas = new Canvas();
-        frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        Insets insets = frame.getInsets();
-        frame.getContentPane().setPreferredSize(new Dimension(insets.left + insets.right + 6*40, insets.top + insets.bottom + 14*40));
-        frame.add(canvas);
-        frame.pack();
-        frame.setVisible(true);
+        // Create debug frame, unless we're running headless
+        QTableVisualizer visualizer = null;
+        if (!agentHost.receivedArgument("headless") && !GraphicsEnvironment.isHeadless()) {
+            JFrame frame = new JFrame("Q-table");
+            Canvas canvas = new Canvas();
+            frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            Insets insets = frame.getInsets();
+            frame.getContentPane().setPreferredSize(new Dimension(insets.left + insets.right + 6*40, insets.top + insets.bottom + 14*40));
+            frame.add(canvas);
+            frame.pack();
+            frame.setVisible(true);
+
+            double fps = agentHost.receivedArgument("fps") ? agentHost.getFloatArgument("fps") : 10;
+            visualizer = new QTableVisualizer(canvas, fps);
+        }
+
+        // Load the initial model and set up checkpointing
+        QTable initialModel = null;
+        QTableFile.Checkpointer checkpointer = null;
+        String modelFileName = agentHost.receivedArgument("model_file") ? agentHost.getStringArgument("model_file") : "";
+        if (!modelFileName.isEmpty()) {
+            Path modelFile = Paths.get(modelFileName);
+            if (agentHost.receivedArgument("load_model")) {
+                try {
+                    initialModel = QTableFile.read(modelFile);
+                    System.out.format("Loaded model with %d states from %s\n", initialModel.size(), modelFile);
+                } catch (IOException e) {
+                    System.err.println("Couldn't load model: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            checkpointer = new QTableFile.Checkpointer(modelFile);
+        }
+        int checkpointInterval = 100;   // Checkpoint the model every this many repeats
+
+        // Decide which episodes to record, and keep the recordings within their disk budget
+        long recordBudgetMb = agentHost.receivedArgument("record_budget_mb") ? agentHost.getIntArgument("record_budget_mb") : 10240;
+        SavePruner savePruner = new SavePruner(Paths.get("./malmosaves"), recordBudgetMb * 1024 * 1024, 30);
+        RecordingPolicy recordingPolicy = new RecordingPolicy(savePruner, "tabular_q_learning");
+        if (agentHost.receivedArgument("record_every"))
+            recordingPolicy.setEvery(agentHost.getIntArgument("record_every"));
+        if (agentHost.receivedArgument("record_outliers"))
+            recordingPolicy.setOutlierThreshold(agentHost.getFloatArgument("record_outliers"));
+
+        // Dump the metrics every so often
+        MetricsReporter metricsReporter = null;
+        String metricsDir = agentHost.receivedArgument("metrics_dir") ? agentHost.getStringArgument("metrics_dir") : "";
+        if (!metricsDir.isEmpty()) {
+            long metricsInterval = agentHost.receivedArgument("metrics_interval") ? agentHost.getIntArgument("metrics_interval") : 60;
+            try {
+                metricsReporter = new MetricsReporter(Paths.get(metricsDir), metricsInterval);
+            } catch (IOException e) {
+                System.err.println("Couldn't create metrics directory: " + e.getMessage());
+            }
+        }
+
+        // Learn more from every real step by replaying past ones while we wait for the next
+        int planningSteps = agentHost.receivedArgument("planning_steps") ? agentHost.getIntArgument("planning_steps") : 0;
+        int replayCapacity = agentHost.receivedArgument("replay_capacity") ? agentHost.getIntArgument("replay_capacity") : 100000;
+        boolean sweeping = agentHost.receivedArgument("prioritized_sweeping");
+        double sweepingThreshold = agentHost.receivedArgument("sweeping_threshold") ? agentHost.getFloatArgument("sweeping_threshold") : 0.01;
+        if (sweeping && !agentHost.receivedArgument("planning_steps"))
+            planningSteps = 100;
+
+        // Use HyperparameterSweep to find good values on the simulator first
+        double alpha = agentHost.receivedArgument("alpha") ? agentHost.getFloatArgument("alpha") : 0.1;
+        double epsilon = agentHost.receivedArgument("epsilon") ? agentHost.getFloatArgument("epsilon") : 0.01;
+        double gamma = agentHost.receivedArgument("gamma") ? agentHost.getFloatArgument("gamma") : 1.0;
+
+        // Pass rewards back along the whole path with Q(lambda)
+        double lambda = agentHost.receivedArgument("lambda") ? agentHost.getFloatArgument("lambda") : 0;
+        boolean peng = agentHost.receivedArgument("peng");
+
+        // Derive every map and every episode from one seed, so a run can be repeated
+        long seed = agentHost.receivedArgument("seed") ? agentHost.getIntArgument("seed") : 0;
+        if (seed == 0)
+            seed = System.nanoTime();
+        System.out.println("Seed: " + seed);
+        SplittableRandom seeds = new SplittableRandom(seed);
+
+        // Record what the agents see and do, to replay it with EpisodeReplay
+        String[] actionSet = new String[]{"movenorth 1", "movesouth 1", "movewest 1", "moveeast 1"};    // Possible actions
+        EpisodeRecorder episodeRecorder = null;
+        String recordEpisodes = agentHost.receivedArgument("record_episodes") ? agentHost.getStringArgument("record_episodes") : "";
+        if (!recordEpisodes.isEmpty()) {
+            try {
+                episodeRecorder = new EpisodeRecorder(Paths.get(recordEpisodes), actionSet, epsilon, alpha, gamma);
+                episodeRecorder.setInitialModel(initialModel);
+                episodeRecorder.setLambda(lambda, peng);
+                episodeRecorder.setPlanning(planningSteps, replayCapacity);
+                if (sweeping)
+                    episodeRecorder.setSweeping(sweepingThreshold);
+            } catch (IOException e) {
+                System.err.println("Couldn't create episode recording: " + e.getMessage());
+            }
+        }
+
+        MissionTemplateRegistry missionTemplates = new MissionTemplateRegistry();
+        Consumer<MissionSpec> missionSetup = spec -> {   // The same instance every map, so the template is reused
+            spec.removeAllCommandHandlers();
+            spec.allowAllDiscreteMovementCommands();
+            spec.requestVideo(320, 240);
+            spec.setViewpoint(1);
+        };
 
         int numMaps = 30000;
         if (agentHost.receivedArgument("test"))
             numMaps = 1;
 
+        // Start missions in the background, on every client we have
+        String clients = agentHost.receivedArgument("clients") ? agentHost.getStringArgument("clients") : "127.0.0.1:10000";
+        MissionPipeline pipeline = new MissionPipeline("tabular_q_learning", clients.split(","));
+
         for (int runMap = 0; runMap < numMaps; runMap++) {
-            String[] actionSet = new String[]{"movenorth 1", "movesouth 1", "movewest 1", "moveeast 1"};    // Possible actions
+            SplittableRandom mapRandom = seeds.split();
 
             TabularQAgent agent = new TabularQAgent(actionSet,
-                    0.01,
-                    0.1,
-                    1.0,
-                    true,
-                    canvas);
+                    epsilon,
+                    alpha,
+                    gamma,
+                    agentHost.receivedArgument("debug"),
+                    null);
+            agent.setVisualizer(visualizer);
+            if (initialModel != null)
+                agent.setQTable(initialModel.copy());
+            agent.setLambda(lambda, peng);
+            if (sweeping)
+                agent.setSweeping(sweepingThreshold);
+            agent.setPlanning(planningSteps, replayCapacity, episodeRecorder == null); // Plan inline to record repeatable episodes
 
             MissionSpec mission = null;
             try {
                 //String missionFile = agentHost.getStringArgument("mission_file");
                 String missionFile = "C:/Malmo/Sample_missions/cliff_walking_1.xml";
-                mission = new MissionSpec(readFile(missionFile, Charset.forName("UTF-8")), true);
-                mission.removeAllCommandHandlers();
-                mission.allowAllDiscreteMovementCommands();
-                mission.requestVideo(320, 240);
-                mission.setViewpoint(1);
+                // Only read and validated for the first map
+                MissionTemplate template = missionTemplates.load(Paths.get(missionFile), missionSetup);
+
+                // Draw holes to make it interesting
+                StringBuilder missionXml = template.newBuffer(256);
+                DecoratorWriter holes = template.decorators(missionXml);
+                for (int z = 2; z < 12; z+=2) {
+                    int x = mapRandom.nextInt(1, 4); // Random value between 1 and 3. No, there is no typo. It's supposed to be .nextInt(min, max+1)
+                    holes.drawBlock(x, 45, z, "lava");
+                }
+                mission = template.finish(missionXml);
             } catch (Exception e) {
                 System.err.println("Error occured: " + e.getMessage());
                 e.printStackTrace();
@@ -401,66 +754,76 @@ public class TabularQLearning {
             if (mission == null)
                 continue;         // Exit if mission couldn't be initialized - on to the next map TODO Should this exit the application?
 
-            // Draw holes to make it interesting
-            for (int z = 2; z < 12; z+=2) {
-                int x = ThreadLocalRandom.current().nextInt(1, 4); // Random value between 1 and 3. No, there is no typo. It's supposed to be .nextInt(min, max+1)
-                mission.drawBlock(x, 45, z, "lava");
-            }
-
-            // Make a client pool
-            ClientPool clientPool = new ClientPool();
-            clientPool.add(new ClientInfo("127.0.0.1", 10000));
-            // Add your own clients here if you wish!
-
-            int maxRetries = 3;     // How many times should we try to restart if we fail to restart
-            int agentId = 0;
-            String expId = "tabular_q_learning";
-
             int numRepeats = 10000;   // How many times we should let the agent run on the same map
             List<Double> cumulativeRewards = new ArrayList<>();
+            RecordingPolicy.Recording recording = recordingPolicy.begin(runMap, 0, numRepeats);
+            Future<MissionPipeline.Lane> started = pipeline.start(mission, recording.spec);
             for (int repeat = 0; repeat < numRepeats; repeat++) {
 
                 System.out.format("Map %d - Mission %d out of %d: \n", runMap, repeat + 1, numRepeats);
 
-                MissionRecordSpec missionRecord = new MissionRecordSpec(String.format("./malmosaves/save_%s-map%d-rep%d.tgz", expId, runMap, repeat));
-                missionRecord.recordCommands();
-                missionRecord.recordMP4(20, 400000);
-                missionRecord.recordRewards();
-                missionRecord.recordObservations();
-
-                // Try to start the mission
-                for(int retry=0; retry<maxRetries; retry++) {
-                    try {
-                        agentHost.startMission(mission, missionRecord);
-                        break; // Mission started - stop trying to start it again
-                    } catch(Exception e) {
-                        if(retry == maxRetries - 1) {   // Failed to start the mission as many times as we defined in "maxRetries"
-                            System.err.println("Fatal error - failed to start the mission multiple times - exiting program");
-                            System.exit(1);
-                        }
-
-                        System.err.println("Couldn't start mission: "+e.getMessage());
-                        e.printStackTrace();
-                        sleep(2000);
-                    }
+                // Wait for the mission to begin
+                MissionPipeline.Lane lane;
+                try {
+                    lane = pipeline.take(started, mission, recording.spec);
+                } catch (ExecutionException | InterruptedException e) {
+                    System.err.println("Fatal error - failed to start the mission multiple times - exiting program");
+                    e.printStackTrace();
+                    System.exit(1);
+                    return;
                 }
 
-                // Wait for the mission to begin
-                System.out.println("Waiting for the mission to start");
-                WorldState worldState = agentHost.getWorldState();
-                while(!worldState.getIsMissionRunning()) {
-                    System.out.print(".");
-                    sleep(100);
-                    worldState = agentHost.getWorldState();
-                    for(int i=0; i<worldState.getErrors().size(); i++)
-                        System.err.println(worldState.getErrors().get(i).getText());
+                // Start the next episode while this one runs
+                RecordingPolicy.Recording nextRecording = null;
+                if (repeat + 1 < numRepeats) {
+                    nextRecording = recordingPolicy.begin(runMap, repeat + 1, numRepeats);
+                    started = pipeline.start(mission, nextRecording.spec);
                 }
 
-                double cumulativeReward = agent.run(agentHost);
+                long episodeSeed = mapRandom.nextLong();
+                agent.setSeed(episodeSeed);
+                Environment environment = recording.wrap(lane.environment);
+                if (episodeRecorder != null)
+                    environment = episodeRecorder.record(environment, runMap, episodeSeed);
+                double cumulativeReward = agent.run(environment);
+                if (episodeRecorder != null) {
+                    try {
+                        episodeRecorder.endEpisode();
+                    } catch (IOException e) {
+                        System.err.println("Couldn't record episode: " + e.getMessage());
+                    }
+                }
+                pipeline.release(lane);
                 System.out.println("Reward received: "+cumulativeReward);
                 cumulativeRewards.add(cumulativeReward);
+                recordingPolicy.end(recording, cumulativeReward);
+                recording = nextRecording;
 
-                sleep(500); // Let the agent clean up
+                if (checkpointer != null && (repeat + 1) % checkpointInterval == 0)
+                    checkpointer.checkpointSnapshot(agent.copyQTable());
+            }
+
+            agent.stopPlanning();
+            if (checkpointer != null)
+                checkpointer.checkpointSnapshot(agent.copyQTable());
+        }
+
+        for (MissionPipeline.Lane lane : pipeline.getLanes())
+            for (MissionRunner.ClientStats client : lane.runner.getClients())
+                System.out.println(client);
+        pipeline.close();
+        if (metricsReporter != null)
+            metricsReporter.close();
+        if (visualizer != null)
+            visualizer.close();
+        savePruner.close();
+        if (checkpointer != null)
+            checkpointer.close();
+        if (episodeRecorder != null) {
+            try {
+                episodeRecorder.close();
+            } catch (IOException e) {
+                System.err.println("Couldn't close episode recording: " + e.getMessage());
             }
         }
     }
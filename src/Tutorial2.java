@@ -1,5 +1,7 @@
 import com.microsoft.msr.malmo.*;
 
+import java.util.concurrent.TimeoutException;
+
 /**
  * A Java translation of the Python "tutorial_1" example for the Malmo platform made by Microsoft
  *
@@ -65,66 +67,24 @@ public class Tutorial2 {
             System.exit(1);
         }
 
-        // Try to start the mission
-        int maxRetries = 3;                 // How many times will we try to start our mission
-        for(int i=0; i<maxRetries; i++) {
-            try {
-                // Start the mission - hope it doesn't throw an exception
-                agent.startMission(mission, missionRecord);
-                break;
-            } catch(Exception e) {
-                // Failed to start the mission since an exception was thrown.
-                if(i == maxRetries - 1) {   // Failed to start the mission as many times as we defined in "maxRetries"
-                    System.out.format("ERROR: %s", e.getMessage());
-                    System.out.format("Couldn't start the mission after trying %d times. Exiting mission.", maxRetries);
-                    System.exit(1);
-                }
-
-                System.out.format("Failed to start the mission after %d/%d attempts. Retrying in 2 seconds.", i+1, maxRetries);
-                try {
-                    Thread.sleep(2000);
-                } catch(InterruptedException e2) {
-                    System.out.format("ERROR: %s", e2.getMessage());
-                    System.out.println("Couldn't sleep the thread for two seconds");
-                }
-            }
-        }
-
-        // Wait for the mission to start
-        WorldState worldState = agent.getWorldState();
-        while(!worldState.getHasMissionBegun()) {   // Wait for the mission to begin
-            System.out.print(".");
-            try {
-                Thread.sleep(100);
-            } catch(InterruptedException e) {
-                System.out.format("ERROR: %s", e.getMessage());
-                System.out.println("Couldn't sleep the thread for 0.1 second while waiting for the mission to begin");
-            }
-
-            worldState = agent.getWorldState();
-            for(int i=0; i<worldState.getErrors().size(); i++) {
-                System.out.format("ERROR: "+worldState.getErrors().get(i));
-            }
+        // Start the mission and wait for it to begin, retrying with back-off if it doesn't
+        MissionRunner runner = new MissionRunner(agent);
+        try {
+            runner.start(mission, missionRecord);
+        } catch(Exception e) {
+            System.out.format("ERROR: %s", e.getMessage());
+            System.out.println("Couldn't start the mission. Exiting mission.");
+            System.exit(1);
         }
 
         // Log that the mission started
         System.out.println("\nMission started");
 
-        // Do something. In our case, we do nothing for 10 seconds.
-        while(worldState.getIsMissionRunning()) {
-            System.out.print(".");
-
-            try {
-                Thread.sleep(100);
-            } catch(InterruptedException e) {
-                System.out.format("ERROR: %s", e.getMessage());
-                System.out.println("Couldn't sleep the thread for 0.1 second while the mission's executing");
-            }
-
-            worldState = agent.getWorldState();
-            for(int i=0; i<worldState.getErrors().size(); i++) {
-                System.out.format("ERROR: "+worldState.getErrors().get(i));
-            }
+        // Wait for the mission to end
+        try {
+            runner.awaitEnd(0);
+        } catch(InterruptedException | TimeoutException e) {
+            System.out.format("ERROR: %s", e.getMessage());
         }
 
         System.out.println("\n\nMission has ended.");
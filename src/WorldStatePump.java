@@ -0,0 +1,245 @@
+import com.microsoft.msr.malmo.AgentHost;
+import com.microsoft.msr.malmo.TimestampedStringVector;
+import com.microsoft.msr.malmo.WorldState;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls an AgentHost on its own thread and publishes a step every time the agent has something new to act on.
+ *
+ * A step is complete once the world state has observations (and rewards, if asked for) and a video frame newer
+ * than the one those observations arrived with. That's the same condition the agent used to busy-spin on with
+ * peekWorldState(). While waiting, the poller backs off from spinning to yielding to parking with a growing
+ * interval, so an idle agent barely uses any CPU. Once a step is complete it's taken with getWorldState(), copied
+ * into a WorldStateSnapshot and handed to the thread blocked in awaitStep().
+ *
+ * The pump captures into two snapshots in turn, so a snapshot stays valid until the next step after it is taken.
+ */
+public class WorldStatePump implements AutoCloseable {
+
+    /**
+     * How often to spin before we start yielding
+     */
+    private static final int SPIN_TRIES = 64;
+
+    /**
+     * How often to yield before we start parking
+     */
+    private static final int YIELD_TRIES = 16;
+
+    /**
+     * The first park interval
+     */
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * The host we're polling
+     */
+    private final AgentHost agentHost;
+
+    /**
+     * Whether a step also has to wait for a new video frame
+     */
+    private final boolean waitForFrames;
+
+    /**
+     * The longest we park between two polls
+     */
+    private final long maxParkNanos;
+
+    /**
+     * Step requests from awaitStep(), true if the step requires rewards
+     */
+    private final BlockingQueue<Boolean> requests = new ArrayBlockingQueue<>(1);
+
+    /**
+     * Completed steps for awaitStep()
+     */
+    private final BlockingQueue<WorldStateSnapshot> steps = new ArrayBlockingQueue<>(1);
+
+    /**
+     * The snapshots the steps are captured into, in turn
+     */
+    private final WorldStateSnapshot[] snapshots = {new WorldStateSnapshot(), new WorldStateSnapshot()};
+
+    /**
+     * The snapshot the next step goes into
+     */
+    private int nextSnapshot;
+
+    /**
+     * The polling thread
+     */
+    private final Thread thread;
+
+    /**
+     * Whether the pump has been closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * The calls into Malmo made for the step being polled, only touched by the polling thread
+     */
+    private int jniCalls;
+
+    /**
+     * The calls into Malmo made for the last completed step
+     */
+    private volatile int lastStepJniCalls;
+
+    /**
+     * Creates a pump that waits for video frames and parks at most 5ms between polls
+     * @param agentHost The host to poll
+     */
+    public WorldStatePump(AgentHost agentHost) {
+        this(agentHost, true, TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    /**
+     * Creates a new pump
+     * @param agentHost The host to poll
+     * @param waitForFrames Whether a step has to wait for a video frame newer than its observations. Only use this if the mission requests video.
+     * @param maxParkNanos The longest to park between two polls. Lower means less latency, higher means less CPU.
+     */
+    public WorldStatePump(AgentHost agentHost, boolean waitForFrames, long maxParkNanos) {
+        this.agentHost = agentHost;
+        this.waitForFrames = waitForFrames;
+        this.maxParkNanos = Math.max(MIN_PARK_NANOS, maxParkNanos);
+        this.thread = new Thread(this::pump, "world-state-pump");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Blocks until the next step is available
+     * @param requireRewards Whether the step needs rewards as well as observations. False for the first step of a mission.
+     * @return The world state of the step, valid until the next call. The mission may have ended in it.
+     * @throws InterruptedException If we're interrupted while waiting
+     */
+    public WorldStateSnapshot awaitStep(boolean requireRewards) throws InterruptedException {
+        if(closed)
+            throw new IllegalStateException("Pump is closed");
+        requests.put(requireRewards);
+        return steps.take();
+    }
+
+    /**
+     * @return How many calls into Malmo the pump made for the last step it completed
+     */
+    public int getLastStepJniCalls() {
+        return lastStepJniCalls;
+    }
+
+    /**
+     * Stops the polling thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    /**
+     * The polling thread
+     */
+    private void pump() {
+        try {
+            while(!closed) {
+                boolean requireRewards = requests.take();
+                steps.put(pollStep(requireRewards));
+            }
+        } catch(InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Polls the host until a step is complete
+     * @param requireRewards Whether the step needs rewards as well as observations
+     * @return The world state of the step
+     * @throws InterruptedException If we're closed while polling
+     */
+    private WorldStateSnapshot pollStep(boolean requireRewards) throws InterruptedException {
+        long start = System.nanoTime();
+        jniCalls = 0;
+        int idle = 0;
+        int framesSeen = -1; // -1 = still waiting for observations
+        while(true) {
+            if(closed)
+                throw new InterruptedException();
+
+            WorldState state = agentHost.peekWorldState();
+            jniCalls += 2;
+            boolean done;
+            if(!state.getIsMissionRunning()) {
+                done = true;
+            } else if(framesSeen < 0) {
+                done = false;
+                if(requireRewards)
+                    jniCalls += 2;
+                if((!requireRewards || state.getRewards().size() > 0) && observationsReady(state)) {
+                    framesSeen = state.getNumberOfVideoFramesSinceLastState();
+                    jniCalls++;
+                    done = !waitForFrames;
+                    idle = 0;
+                }
+            } else {
+                done = state.getNumberOfVideoFramesSinceLastState() != framesSeen;
+                jniCalls++;
+            }
+            state.delete(); // Free the proxy now instead of waiting for its finalizer
+            jniCalls++;
+
+            if(done) {
+                WorldState step = agentHost.getWorldState();
+                jniCalls++;
+                WorldStateSnapshot snapshot = snapshots[nextSnapshot].capture(step);
+                jniCalls += snapshot.getJniCalls();
+                nextSnapshot ^= 1;
+                step.delete();
+                jniCalls++;
+                lastStepJniCalls = jniCalls;
+                Metrics.PEEK_LOOP.recordSince(start);
+                return snapshot;
+            }
+            backOff(idle++);
+        }
+    }
+
+    /**
+     * Checks if the world state has observations, counting the calls into Malmo
+     * @param state The current WorldState
+     * @return True if there's observations, false if not
+     */
+    private boolean observationsReady(WorldState state) {
+        TimestampedStringVector observations = state.getObservations();
+        long size = observations.size();
+        jniCalls += 2;
+        if(size == 0)
+            return false;
+        for(int i=0; i<size; i++) {
+            jniCalls += 2;
+            if(observations.get(i).getText().equalsIgnoreCase("{}"))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits a bit before the next poll: spin first, then yield, then park for longer and longer
+     * @param idle How many polls in a row found nothing new
+     */
+    private void backOff(int idle) {
+        if(idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if(idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(idle - SPIN_TRIES - YIELD_TRIES, 20);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, maxParkNanos));
+        }
+    }
+}
@@ -0,0 +1,415 @@
+import com.microsoft.msr.malmo.TimestampedReward;
+import com.microsoft.msr.malmo.TimestampedRewardVector;
+import com.microsoft.msr.malmo.TimestampedString;
+import com.microsoft.msr.malmo.TimestampedStringVector;
+import com.microsoft.msr.malmo.TimestampedVideoFrame;
+import com.microsoft.msr.malmo.TimestampedVideoFrameVector;
+import com.microsoft.msr.malmo.WorldState;
+
+import java.util.Arrays;
+
+/**
+ * A plain Java copy of a WorldState: the flags, errors, observations, rewards and the metadata of the video frames.
+ *
+ * Every getter of a WorldState is a call into Malmo, and every vector element it returns is a new proxy with a
+ * finalizer. capture() reads everything once, in one pass, and deletes the proxies right away. After that the
+ * snapshot can be read as often as needed. The pixels of the video frames aren't copied.
+ *
+ * A snapshot can be captured into again, which reuses its arrays.
+ */
+public class WorldStateSnapshot {
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final long[] NO_LONGS = new long[0];
+    private static final double[] NO_DOUBLES = new double[0];
+    private static final float[] NO_FLOATS = new float[0];
+    private static final int[] NO_INTS = new int[0];
+
+    /**
+     * The flags of the world state
+     */
+    private boolean missionRunning, missionBegun;
+
+    /**
+     * The amounts since the previous world state, including ones that were dropped
+     */
+    private int videoFramesSinceLastState, rewardsSinceLastState, observationsSinceLastState;
+
+    /**
+     * The observations and when they were made (milliseconds since the epoch)
+     */
+    private String[] observations = NO_STRINGS;
+    private long[] observationTimes = NO_LONGS;
+    private int observationCount;
+
+    /**
+     * The rewards and when they were given
+     */
+    private double[] rewards = NO_DOUBLES;
+    private long[] rewardTimes = NO_LONGS;
+    private int rewardCount;
+
+    /**
+     * The errors
+     */
+    private String[] errors = NO_STRINGS;
+    private int errorCount;
+
+    /**
+     * The metadata of the video frames: size, where the camera was, and when
+     */
+    private int[] frameWidths = NO_INTS, frameHeights = NO_INTS, frameChannels = NO_INTS;
+    private float[] frameX = NO_FLOATS, frameY = NO_FLOATS, frameZ = NO_FLOATS, frameYaw = NO_FLOATS, framePitch = NO_FLOATS;
+    private long[] frameTimes = NO_LONGS;
+    private int frameCount;
+
+    /**
+     * The calls into Malmo the last capture made
+     */
+    private int jniCalls;
+
+    /**
+     * Copies a world state into a new snapshot
+     * @param worldState The world state. Isn't deleted.
+     * @return The snapshot
+     */
+    public static WorldStateSnapshot of(WorldState worldState) {
+        WorldStateSnapshot snapshot = new WorldStateSnapshot();
+        snapshot.capture(worldState);
+        return snapshot;
+    }
+
+    /**
+     * Copies a world state into this snapshot, replacing what it held
+     * @param worldState The world state. Isn't deleted.
+     * @return This snapshot
+     */
+    public WorldStateSnapshot capture(WorldState worldState) {
+        missionRunning = worldState.getIsMissionRunning();
+        missionBegun = worldState.getHasMissionBegun();
+        videoFramesSinceLastState = worldState.getNumberOfVideoFramesSinceLastState();
+        rewardsSinceLastState = worldState.getNumberOfRewardsSinceLastState();
+        observationsSinceLastState = worldState.getNumberOfObservationsSinceLastState();
+        jniCalls = 5; // The five getters above
+
+        TimestampedStringVector observationVector = worldState.getObservations();
+        observationCount = (int) observationVector.size();
+        if(observations.length < observationCount) {
+            observations = new String[observationCount];
+            observationTimes = new long[observationCount];
+        }
+        for(int i=0; i<observationCount; i++) {
+            TimestampedString observation = observationVector.get(i);
+            observations[i] = observation.getText();
+            observationTimes[i] = observation.getTimestamp().getTime();
+            observation.delete();
+            jniCalls += 4; // get, getText, getTimestamp, delete
+        }
+        observationVector.delete();
+        jniCalls += 3; // getObservations, size, delete
+
+        TimestampedRewardVector rewardVector = worldState.getRewards();
+        rewardCount = (int) rewardVector.size();
+        if(rewards.length < rewardCount) {
+            rewards = new double[rewardCount];
+            rewardTimes = new long[rewardCount];
+        }
+        for(int i=0; i<rewardCount; i++) {
+            TimestampedReward reward = rewardVector.get(i);
+            rewards[i] = reward.getValue();
+            rewardTimes[i] = reward.getTimestamp().getTime();
+            reward.delete();
+            jniCalls += 4; // get, getValue, getTimestamp, delete
+        }
+        rewardVector.delete();
+        jniCalls += 3; // getRewards, size, delete
+
+        TimestampedStringVector errorVector = worldState.getErrors();
+        errorCount = (int) errorVector.size();
+        if(errors.length < errorCount)
+            errors = new String[errorCount];
+        for(int i=0; i<errorCount; i++) {
+            TimestampedString error = errorVector.get(i);
+            errors[i] = error.getText();
+            error.delete();
+            jniCalls += 3; // get, getText, delete
+        }
+        errorVector.delete();
+        jniCalls += 3; // getErrors, size, delete
+
+        TimestampedVideoFrameVector frameVector = worldState.getVideoFrames();
+        frameCount = (int) frameVector.size();
+        if(frameWidths.length < frameCount)
+            growFrames(frameCount);
+        for(int i=0; i<frameCount; i++) {
+            TimestampedVideoFrame frame = frameVector.get(i);
+            frameWidths[i] = frame.getWidth();
+            frameHeights[i] = frame.getHeight();
+            frameChannels[i] = frame.getChannels();
+            frameX[i] = frame.getXPos();
+            frameY[i] = frame.getYPos();
+            frameZ[i] = frame.getZPos();
+            frameYaw[i] = frame.getYaw();
+            framePitch[i] = frame.getPitch();
+            frameTimes[i] = frame.getTimestamp().getTime();
+            frame.delete();
+            jniCalls += 11; // get, eight getters, getTimestamp, delete
+        }
+        frameVector.delete();
+        jniCalls += 3; // getVideoFrames, size, delete
+
+        // Don't keep old strings alive
+        Arrays.fill(observations, observationCount, observations.length, null);
+        Arrays.fill(errors, errorCount, errors.length, null);
+        return this;
+    }
+
+    /**
+     * Makes room for more frames
+     */
+    private void growFrames(int size) {
+        frameWidths = new int[size];
+        frameHeights = new int[size];
+        frameChannels = new int[size];
+        frameX = new float[size];
+        frameY = new float[size];
+        frameZ = new float[size];
+        frameYaw = new float[size];
+        framePitch = new float[size];
+        frameTimes = new long[size];
+    }
+
+    /**
+     * @return Whether the mission was running
+     */
+    public boolean isMissionRunning() {
+        return missionRunning;
+    }
+
+    /**
+     * @return Whether the mission had begun
+     */
+    public boolean hasMissionBegun() {
+        return missionBegun;
+    }
+
+    /**
+     * @return The amount of video frames since the previous world state, including ones that were dropped
+     */
+    public int getVideoFramesSinceLastState() {
+        return videoFramesSinceLastState;
+    }
+
+    /**
+     * @return The amount of rewards since the previous world state, including ones that were dropped
+     */
+    public int getRewardsSinceLastState() {
+        return rewardsSinceLastState;
+    }
+
+    /**
+     * @return The amount of observations since the previous world state, including ones that were dropped
+     */
+    public int getObservationsSinceLastState() {
+        return observationsSinceLastState;
+    }
+
+    /**
+     * @return The amount of observations
+     */
+    public int getObservationCount() {
+        return observationCount;
+    }
+
+    /**
+     * @param i The index of the observation
+     * @return The JSON text of the observation
+     */
+    public String getObservation(int i) {
+        checkIndex(i, observationCount);
+        return observations[i];
+    }
+
+    /**
+     * @param i The index of the observation
+     * @return When the observation was made, in milliseconds since the epoch
+     */
+    public long getObservationTime(int i) {
+        checkIndex(i, observationCount);
+        return observationTimes[i];
+    }
+
+    /**
+     * @return True if there are observations and none of them is empty ("{}")
+     */
+    public boolean hasObservations() {
+        if(observationCount == 0)
+            return false;
+        for(int i=0; i<observationCount; i++)
+            if(observations[i].equalsIgnoreCase("{}"))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return The amount of rewards
+     */
+    public int getRewardCount() {
+        return rewardCount;
+    }
+
+    /**
+     * @param i The index of the reward
+     * @return The value of the reward
+     */
+    public double getReward(int i) {
+        checkIndex(i, rewardCount);
+        return rewards[i];
+    }
+
+    /**
+     * @param i The index of the reward
+     * @return When the reward was given, in milliseconds since the epoch
+     */
+    public long getRewardTime(int i) {
+        checkIndex(i, rewardCount);
+        return rewardTimes[i];
+    }
+
+    /**
+     * @return The sum of all rewards
+     */
+    public double getRewardSum() {
+        double sum = 0;
+        for(int i=0; i<rewardCount; i++)
+            sum += rewards[i];
+        return sum;
+    }
+
+    /**
+     * @return The amount of errors
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @param i The index of the error
+     * @return The text of the error
+     */
+    public String getError(int i) {
+        checkIndex(i, errorCount);
+        return errors[i];
+    }
+
+    /**
+     * Prints the errors to System.err
+     */
+    public void printErrors() {
+        for(int i=0; i<errorCount; i++)
+            System.err.println("ERROR: " + errors[i]);
+    }
+
+    /**
+     * @return The amount of video frames
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The width of the frame in pixels
+     */
+    public int getFrameWidth(int i) {
+        checkIndex(i, frameCount);
+        return frameWidths[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The height of the frame in pixels
+     */
+    public int getFrameHeight(int i) {
+        checkIndex(i, frameCount);
+        return frameHeights[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The amount of channels per pixel, e.g. 3 for RGB
+     */
+    public int getFrameChannels(int i) {
+        checkIndex(i, frameCount);
+        return frameChannels[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The X position of the camera
+     */
+    public float getFrameX(int i) {
+        checkIndex(i, frameCount);
+        return frameX[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The Y position of the camera
+     */
+    public float getFrameY(int i) {
+        checkIndex(i, frameCount);
+        return frameY[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The Z position of the camera
+     */
+    public float getFrameZ(int i) {
+        checkIndex(i, frameCount);
+        return frameZ[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The yaw of the camera
+     */
+    public float getFrameYaw(int i) {
+        checkIndex(i, frameCount);
+        return frameYaw[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The pitch of the camera
+     */
+    public float getFramePitch(int i) {
+        checkIndex(i, frameCount);
+        return framePitch[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return When the frame was taken, in milliseconds since the epoch
+     */
+    public long getFrameTime(int i) {
+        checkIndex(i, frameCount);
+        return frameTimes[i];
+    }
+
+    /**
+     * @return How many calls into Malmo the last capture made
+     */
+    public int getJniCalls() {
+        return jniCalls;
+    }
+
+    /**
+     * Throws if an index is out of bounds
+     */
+    private static void checkIndex(int i, int count) {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + count);
+    }
+}